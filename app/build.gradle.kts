@@ -15,6 +15,16 @@ android {
         versionName = "1.0"
 
         testInstrumentationRunner = "androidx.test.runner.AndroidJUnitRunner"
+
+        javaCompileOptions {
+            annotationProcessorOptions {
+                arguments += mapOf("room.schemaLocation" to "$projectDir/schemas")
+            }
+        }
+    }
+
+    sourceSets {
+        getByName("androidTest").assets.srcDir("$projectDir/schemas")
     }
 
     buildTypes {
@@ -30,6 +40,9 @@ android {
         sourceCompatibility = JavaVersion.VERSION_1_8
         targetCompatibility = JavaVersion.VERSION_1_8
     }
+    testOptions {
+        unitTests.isReturnDefaultValues = true // android.util.Log in code under JVM tests
+    }
 }
 
 dependencies {
@@ -39,12 +52,17 @@ dependencies {
     implementation (libs.constraintlayout)
     implementation (libs.lifecycle.extensions)
     implementation (libs.room.runtime)
+    implementation (libs.androidx.room.paging)
+    implementation (libs.paging.runtime)
+    implementation (libs.lifecycle.viewmodel.ktx)
 
     implementation(libs.androidx.biometric)
     implementation(libs.androidx.monitor)
     implementation(libs.ext.junit)
     implementation(libs.androidx.work.runtime)
     annotationProcessor (libs.androidx.room.compiler)
+    testImplementation (libs.junit)
+    androidTestImplementation (libs.androidx.room.testing)
     implementation (libs.recyclerview)
 
     implementation (libs.bcprov.jdk15on)
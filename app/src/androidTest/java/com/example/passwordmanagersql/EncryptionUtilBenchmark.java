@@ -0,0 +1,184 @@
+package com.example.passwordmanagersql;
+
+import android.content.Context;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Per-operation cost of the vault cipher path, on the vault's own key type: a software data key
+ * wrapped by a Keystore key. The uncached variant repeats what every encrypt/decrypt used to do:
+ * load the Keystore, look up the wrapping key, unwrap the data key and create a new Cipher. The
+ * cached variant unwraps once and reuses this thread's pooled cipher, as {@link EncryptionUtil} does.
+ * The keys live under their own alias and prefs file, so the app's vault is never touched.
+ * Results are written to logcat under the "EncryptionBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EncryptionUtilBenchmark {
+    private static final String TAG = "EncryptionBenchmark";
+    private static final String BENCHMARK_ALIAS = "EncryptionUtilBenchmarkKey";
+    private static final String BENCHMARK_PREFS = "EncryptionUtilBenchmarkPrefs";
+    private static final String WRAPPED_DATA_KEY = "WrappedDataKey";
+    private static final int WARMUP = 50;
+    private static final int ITERATIONS = 500;
+    private static final int GCM_IV_LENGTH = 12;
+    private static final String VALUE = "correct horse battery staple";
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, "AndroidKeyStore");
+        keyGenerator.init(new KeyGenParameterSpec.Builder(
+                BENCHMARK_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        SecretKey wrappingKey = keyGenerator.generateKey();
+
+        byte[] rawKey = new byte[32];
+        new SecureRandom().nextBytes(rawKey);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey);
+        byte[] iv = cipher.getIV();
+        byte[] wrapped = cipher.doFinal(rawKey);
+        EncryptionUtil.secureDelete(rawKey);
+        byte[] combined = new byte[iv.length + wrapped.length];
+        System.arraycopy(iv, 0, combined, 0, iv.length);
+        System.arraycopy(wrapped, 0, combined, iv.length, wrapped.length);
+        context.getSharedPreferences(BENCHMARK_PREFS, Context.MODE_PRIVATE).edit()
+                .putString(WRAPPED_DATA_KEY, Base64.encodeToString(combined, Base64.NO_WRAP))
+                .commit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+        keyStore.deleteEntry(BENCHMARK_ALIAS);
+        context.deleteSharedPreferences(BENCHMARK_PREFS);
+    }
+
+    @Test
+    public void encryptDecryptRoundTrip() throws Exception {
+        long uncached = measure(() -> {
+            byte[] sealed = seal(Cipher.getInstance("AES/GCM/NoPadding"), unwrapDataKey(), VALUE);
+            assertEquals(VALUE, open(Cipher.getInstance("AES/GCM/NoPadding"), unwrapDataKey(), sealed));
+        });
+        SecretKey dataKey = unwrapDataKey();
+        long cached = measure(() -> {
+            byte[] sealed = seal(EncryptionUtil.getPooledCipher(), dataKey, VALUE);
+            assertEquals(VALUE, open(EncryptionUtil.getPooledCipher(), dataKey, sealed));
+        });
+
+        Log.i(TAG, "uncached round trip: " + uncached + " ns/op");
+        Log.i(TAG, "cached key and pooled cipher round trip: " + cached + " ns/op");
+    }
+
+    @Test
+    public void argon2LanesMatchBouncyCastle() {
+        byte[] password = VALUE.getBytes(StandardCharsets.UTF_8);
+        byte[] salt = new byte[EncryptionUtil.ARGON2_SALT_LENGTH];
+        int memoryKB = 32 * 1024;
+        int iterations = 3;
+        for (int parallelism : new int[]{1, 4, 8, 16}) {
+            long start = System.nanoTime();
+            Argon2BytesGenerator generator = new Argon2BytesGenerator();
+            generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                    .withSalt(salt)
+                    .withParallelism(parallelism)
+                    .withMemoryAsKB(memoryKB)
+                    .withIterations(iterations)
+                    .build());
+            byte[] expected = new byte[32];
+            generator.generateBytes(password, expected);
+            long sequential = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[] actual = Argon2id.derive(password, salt, memoryKB, iterations, parallelism, expected.length);
+            long parallel = System.nanoTime() - start;
+
+            assertArrayEquals(expected, actual);
+            Log.i(TAG, "Argon2id p=" + parallelism + ": BouncyCastle " + sequential / 1000000
+                    + " ms, parallel lanes " + parallel / 1000000 + " ms");
+        }
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private static long measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    /**
+     * Loads the Keystore, looks up the wrapping key and unwraps the data key, with no caching.
+     */
+    private SecretKey unwrapDataKey() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("AndroidKeyStore");
+        keyStore.load(null);
+        SecretKey wrappingKey = (SecretKey) keyStore.getKey(BENCHMARK_ALIAS, null);
+        byte[] wrapped = Base64.decode(context.getSharedPreferences(BENCHMARK_PREFS, Context.MODE_PRIVATE)
+                .getString(WRAPPED_DATA_KEY, null), Base64.DEFAULT);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, wrappingKey, new GCMParameterSpec(128, wrapped, 0, GCM_IV_LENGTH));
+        byte[] rawKey = cipher.doFinal(wrapped, GCM_IV_LENGTH, wrapped.length - GCM_IV_LENGTH);
+        try {
+            return new SecretKeySpec(rawKey, "AES");
+        } finally {
+            EncryptionUtil.secureDelete(rawKey);
+        }
+    }
+
+    private static byte[] seal(Cipher cipher, SecretKey key, String value) throws Exception {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        new SecureRandom().nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+        byte[] encrypted = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        byte[] combined = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, combined, 0, iv.length);
+        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+        return combined;
+    }
+
+    private static String open(Cipher cipher, SecretKey key, byte[] combined) throws Exception {
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, combined, 0, GCM_IV_LENGTH));
+        return new String(cipher.doFinal(combined, GCM_IV_LENGTH, combined.length - GCM_IV_LENGTH), StandardCharsets.UTF_8);
+    }
+}
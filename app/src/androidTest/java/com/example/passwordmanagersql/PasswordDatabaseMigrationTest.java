@@ -0,0 +1,268 @@
+package com.example.passwordmanagersql;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Base64;
+
+import androidx.room.Room;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Each migration is run from the schema exported for its start version in app/schemas and
+ * validated against the schema of its end version. The last test opens a version 1 database
+ * with Room, so the whole chain runs the way it does on a device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PasswordDatabaseMigrationTest {
+    private static final String TEST_DB = "migration-test";
+    private static final int ROW_COUNT = 1201; // Crosses several migration batches
+
+    @Rule
+    public final MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(), PasswordDatabase.class);
+
+    private Context context;
+    private byte[] combined;
+    private String legacyText;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(TEST_DB);
+        combined = new byte[40];
+        for (int i = 0; i < combined.length; i++) {
+            combined[i] = (byte) i;
+        }
+        legacyText = Base64.encodeToString(combined, Base64.DEFAULT);
+    }
+
+    @After
+    public void tearDown() {
+        context.deleteDatabase(TEST_DB);
+    }
+
+    @Test
+    public void migrate1To2_convertsBase64TextToHeaderedBlobs() throws Exception {
+        try (SupportSQLiteDatabase v1 = helper.createDatabase(TEST_DB, 1)) {
+            insertEntry(v1, "site0", "user0", legacyText);
+            insertEntry(v1, "site1", "user1", "dk1:" + legacyText);
+            insertEntry(v1, "site2", "user2", "not*base64!");
+            insertEntry(v1, "site3", "user3", null);
+        }
+
+        SupportSQLiteDatabase v2 = helper.runMigrationsAndValidate(TEST_DB, 2, true, PasswordDatabase.MIGRATION_1_2);
+        try (Cursor cursor = v2.query("SELECT `website`, `encryptedPassword` FROM `password_table` ORDER BY `id`")) {
+            cursor.moveToNext();
+            assertEquals("site0", cursor.getString(0));
+            assertHeadered(EncryptionUtil.KEY_ID_KEYSTORE, cursor.getBlob(1));
+            cursor.moveToNext();
+            assertEquals("site1", cursor.getString(0));
+            assertHeadered(EncryptionUtil.KEY_ID_DATA_KEY, cursor.getBlob(1));
+            // The corrupt row is left out instead of failing the migration
+            cursor.moveToNext();
+            assertEquals("site3", cursor.getString(0));
+            assertTrue(cursor.isNull(1));
+            assertFalse(cursor.moveToNext());
+        }
+    }
+
+    @Test
+    public void migrate2To3_startsEntriesUnused() throws Exception {
+        try (SupportSQLiteDatabase v2 = helper.createDatabase(TEST_DB, 2)) {
+            insertEntry(v2, "site", "user", null);
+        }
+
+        SupportSQLiteDatabase v3 = helper.runMigrationsAndValidate(TEST_DB, 3, true, PasswordDatabase.MIGRATION_2_3);
+        try (Cursor cursor = v3.query("SELECT `lastUsedAt`, `useCount` FROM `password_table`")) {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getLong(0));
+            assertEquals(0, cursor.getInt(1));
+        }
+    }
+
+    @Test
+    public void migrate3To4_indexesWebsite() throws Exception {
+        helper.createDatabase(TEST_DB, 3).close();
+        helper.runMigrationsAndValidate(TEST_DB, 4, true, PasswordDatabase.MIGRATION_3_4);
+    }
+
+    @Test
+    public void migrate4To5_keysEntriesAndNumbersCopiesInIdOrder() throws Exception {
+        try (SupportSQLiteDatabase v4 = helper.createDatabase(TEST_DB, 4)) {
+            insertEntry(v4, "https://www.Example.com/", "Alice", null);
+            insertEntry(v4, "other.org", "bob", null);
+            insertEntry(v4, "example.com", " alice ", null);
+        }
+
+        SupportSQLiteDatabase v5 = helper.runMigrationsAndValidate(TEST_DB, 5, true, PasswordDatabase.MIGRATION_4_5);
+        try (Cursor cursor = v5.query("SELECT `matchKey`, `copyNumber`, `updatedAt` FROM `password_table` ORDER BY `id`")) {
+            cursor.moveToNext();
+            assertEquals(PasswordEntry.matchKey("example.com", "alice"), cursor.getString(0));
+            assertEquals(0, cursor.getInt(1));
+            assertEquals(0, cursor.getLong(2));
+            cursor.moveToNext();
+            assertEquals(PasswordEntry.matchKey("other.org", "bob"), cursor.getString(0));
+            assertEquals(0, cursor.getInt(1));
+            cursor.moveToNext();
+            assertEquals(PasswordEntry.matchKey("example.com", "alice"), cursor.getString(0));
+            assertEquals(1, cursor.getInt(1));
+        }
+        // Deleting the first entry promotes its copy
+        v5.execSQL("DELETE FROM `password_table` WHERE `id` = 1");
+        try (Cursor cursor = v5.query("SELECT `copyNumber` FROM `password_table` WHERE `id` = 3")) {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getInt(0));
+        }
+    }
+
+    @Test
+    public void migrate5To6_logsLaterChangesOnly() throws Exception {
+        try (SupportSQLiteDatabase v5 = helper.createDatabase(TEST_DB, 5)) {
+            insertEntry(v5, "before", "user", null);
+        }
+
+        SupportSQLiteDatabase v6 = helper.runMigrationsAndValidate(TEST_DB, 6, true, PasswordDatabase.MIGRATION_5_6);
+        insertEntry(v6, "after", "user", null);
+        v6.execSQL("UPDATE `password_table` SET `useCount` = 1"); // Usage statistics are not logged
+        v6.execSQL("UPDATE `password_table` SET `encryptedPassword` = X'01'"); // Nor is re-encryption
+        try (Cursor cursor = v6.query("SELECT `entryId`, `deleted` FROM `password_changes`")) {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getInt(0));
+            assertEquals(0, cursor.getInt(1));
+        }
+    }
+
+    @Test
+    public void migrate6To7_addsAnEmptyStagingTable() throws Exception {
+        try (SupportSQLiteDatabase v6 = helper.createDatabase(TEST_DB, 6)) {
+            insertEntry(v6, "site", "user", null);
+        }
+
+        SupportSQLiteDatabase v7 = helper.runMigrationsAndValidate(TEST_DB, 7, true, PasswordDatabase.MIGRATION_6_7);
+        try (Cursor cursor = v7.query("SELECT COUNT(*) FROM `restore_staging`")) {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getInt(0));
+        }
+        try (Cursor cursor = v7.query("SELECT COUNT(*) FROM `password_table`")) {
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getInt(0));
+        }
+    }
+
+    @Test
+    public void migrateFrom1_runsTheWholeChainWhenRoomOpensTheDatabase() throws Exception {
+        try (SupportSQLiteDatabase v1 = helper.createDatabase(TEST_DB, 1)) {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                insertEntry(v1, "site" + i, "user" + i, i % 2 == 0 ? legacyText : "dk1:" + legacyText);
+            }
+        }
+
+        PasswordDatabase db = Room.databaseBuilder(context, PasswordDatabase.class, TEST_DB)
+                .addMigrations(PasswordDatabase.MIGRATION_1_2, PasswordDatabase.MIGRATION_2_3, PasswordDatabase.MIGRATION_3_4, PasswordDatabase.MIGRATION_4_5, PasswordDatabase.MIGRATION_5_6, PasswordDatabase.MIGRATION_6_7)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            List<PasswordEntry> entries = db.passwordDao().getAllPasswordsSync();
+            assertEquals(ROW_COUNT, entries.size());
+            for (PasswordEntry entry : entries) {
+                int index = Integer.parseInt(entry.getWebsite().substring("site".length()));
+                assertEquals("user" + index, entry.getUsername());
+                assertHeadered(index % 2 == 0 ? EncryptionUtil.KEY_ID_KEYSTORE : EncryptionUtil.KEY_ID_DATA_KEY,
+                        entry.getEncryptedPassword());
+            }
+
+            // 5 -> 6 logs changes made after the migration, but not usage statistics
+            PasswordDao dao = db.passwordDao();
+            assertEquals(0, dao.getLastChangeSequence());
+            dao.deleteById(entries.get(0).getId());
+            dao.updateContent(entries.get(1).getId(), "changed", "user", PasswordEntry.matchKey("changed", "user"),
+                    entries.get(1).getEncryptedPassword(), 1L);
+            dao.recordUse(entries.get(2).getId(), 1L);
+            List<PasswordChange> changes = dao.getChangesBetween(0, Long.MAX_VALUE);
+            assertEquals(2, changes.size());
+            assertEquals(entries.get(0).getId(), changes.get(0).entryId);
+            assertTrue(changes.get(0).deleted);
+            assertEquals(entries.get(1).getId(), changes.get(1).entryId);
+            assertFalse(changes.get(1).deleted);
+
+            // A key rotation sweep re-encrypts entries without changing them, so it logs nothing
+            List<PasswordEntry> swept = entries.subList(5, 10);
+            List<byte[]> reencrypted = new ArrayList<>();
+            for (PasswordEntry entry : swept) {
+                byte[] newValue = entry.getEncryptedPassword().clone();
+                newValue[1] = (byte) (newValue[1] + 1);
+                reencrypted.add(newValue);
+            }
+            assertEquals(swept.size(), dao.replaceEncryptedPasswords(swept, reencrypted));
+            assertEquals(2, dao.getChangesBetween(0, Long.MAX_VALUE).size());
+
+            // 4 -> 5 keys every row, so a restore merges into the vault instead of duplicating it
+            byte[] blob = entries.get(3).getEncryptedPassword();
+            PasswordEntry older = new PasswordEntry("https://www.SITE3/", " User3 ", blob);
+            assertEquals(1, dao.mergeAll(Arrays.asList(older), ConflictPolicy.KEEP_NEWEST, new ArrayList<>()));
+            assertEquals(1, dao.mergeAll(Arrays.asList(older), ConflictPolicy.KEEP_EXISTING, new ArrayList<>()));
+            PasswordEntry newer = new PasswordEntry("site3", "user3", blob);
+            newer.setUpdatedAt(2L);
+            assertEquals(0, dao.mergeAll(Arrays.asList(newer), ConflictPolicy.KEEP_NEWEST, new ArrayList<>()));
+            assertEquals(2L, dao.getByMatchKey(newer.matchKey).getUpdatedAt());
+            // Without a modification time, only a different password is kept as a copy
+            assertEquals(1, dao.mergeAll(Arrays.asList(older), ConflictPolicy.KEEP_BOTH, new ArrayList<>()));
+            assertEquals(ROW_COUNT - 1, dao.getAllPasswordsSync().size()); // One deleted above
+            PasswordEntry different = new PasswordEntry("site3", "user3", entries.get(4).getEncryptedPassword());
+            assertEquals(0, dao.mergeAll(Arrays.asList(different), ConflictPolicy.KEEP_BOTH, new ArrayList<>()));
+            assertEquals(ROW_COUNT, dao.getAllPasswordsSync().size());
+
+            // Deleting the entry restores merge into promotes its copy
+            dao.deleteById(dao.getByMatchKey(newer.matchKey).getId());
+            assertEquals(1, dao.getNextCopyNumber(newer.matchKey));
+            assertEquals(0, dao.getByMatchKey(newer.matchKey).copyNumber);
+
+            // 6 -> 7 keeps restored entries out of the vault until they are promoted together
+            PasswordEntry staged = new PasswordEntry("staged", "user", blob);
+            dao.stageAll(Arrays.asList(StagedEntry.of(staged), StagedEntry.of(staged)));
+            assertNull(dao.getByMatchKey(staged.matchKey));
+            assertEquals(1, dao.promoteStaged(ConflictPolicy.KEEP_EXISTING, 1, new ArrayList<>()));
+            assertNotNull(dao.getByMatchKey(staged.matchKey));
+            assertTrue(dao.getStaged(0, 1).isEmpty());
+        } finally {
+            db.close();
+        }
+    }
+
+    private static void insertEntry(SupportSQLiteDatabase db, String website, String username, String encryptedPassword) {
+        ContentValues values = new ContentValues();
+        values.put("website", website);
+        values.put("username", username);
+        values.put("encryptedPassword", encryptedPassword);
+        db.insert("password_table", SQLiteDatabase.CONFLICT_ABORT, values);
+    }
+
+    private void assertHeadered(byte keyId, byte[] blob) {
+        assertEquals(1, blob[0]);
+        assertEquals(keyId, blob[1]);
+        assertArrayEquals(combined, Arrays.copyOfRange(blob, 2, blob.length));
+    }
+}
@@ -11,6 +11,7 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.android.material.textfield.TextInputEditText;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 public class AddEditPasswordActivity extends AppCompatActivity {
@@ -18,6 +19,7 @@ public class AddEditPasswordActivity extends AppCompatActivity {
     public static final String EXTRA_WEBSITE = "com.example.passwordmanager.EXTRA_WEBSITE";
     public static final String EXTRA_PASSWORD = "com.example.passwordmanager.EXTRA_PASSWORD";
     public static final String EXTRA_USERNAME = "com.example.passwordmanager.EXTRA_USERNAME";
+    public static final String EXTRA_ENCRYPTED_PASSWORD = "com.example.passwordmanager.EXTRA_ENCRYPTED_PASSWORD";
 
     private TextInputEditText editTextWebsite;
     private TextInputEditText editTextPassword;
@@ -45,8 +47,11 @@ public class AddEditPasswordActivity extends AppCompatActivity {
             editTextWebsite.setText(intent.getStringExtra(EXTRA_WEBSITE));
             editTextUsername.setText(intent.getStringExtra(EXTRA_USERNAME)); // Set the username
             try {
-                String decryptedPassword = EncryptionUtil.decrypt(intent.getStringExtra(EXTRA_PASSWORD));
-                editTextPassword.setText(decryptedPassword);
+                // Usually a cache hit right after the password was revealed
+                char[] decryptedPassword = SecretCache.decrypt(intent.getIntExtra(EXTRA_ID, -1),
+                        intent.getByteArrayExtra(EXTRA_ENCRYPTED_PASSWORD));
+                editTextPassword.setText(decryptedPassword, 0, decryptedPassword.length);
+                Arrays.fill(decryptedPassword, '\0');
             } catch (Exception e) {
                 Log.e("Error occurred", e.toString());
             }
@@ -57,6 +62,12 @@ public class AddEditPasswordActivity extends AppCompatActivity {
         buttonSavePassword.setOnClickListener(v -> savePassword());
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        SecretCache.clear();
+    }
+
     private void savePassword() {
         String website = Objects.requireNonNull(editTextWebsite.getText()).toString().trim();
         String username = Objects.requireNonNull(editTextUsername.getText()).toString().trim();
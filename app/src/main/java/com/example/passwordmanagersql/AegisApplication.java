@@ -0,0 +1,23 @@
+package com.example.passwordmanagersql;
+
+import android.app.Application;
+
+public class AegisApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        EncryptionUtil.init(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        SecretCache.clear();
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // The app left the foreground: drop the unwrapped data key until it is needed again,
+            // and the vault snapshot with it.
+            EncryptionUtil.lock();
+            PasswordDatabase.evictSnapshot();
+        }
+    }
+}
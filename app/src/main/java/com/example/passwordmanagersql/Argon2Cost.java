@@ -0,0 +1,110 @@
+package com.example.passwordmanagersql;
+
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Argon2id cost parameters, and the calibration that picks them for this device.
+ *
+ * Calibration spends as much memory as the ceiling allows, since memory is what makes
+ * Argon2 expensive to attack, and then as many passes as fit in the target time. Only if a
+ * single pass over the ceiling is already too slow does it trade memory for time.
+ *
+ * The ceiling never exceeds {@link #MAX_MEMORY_KB}, which {@link #validate()} accepts on any
+ * device, so a backup made on a phone with a large heap still restores on one with a small heap.
+ */
+public final class Argon2Cost {
+    private static final String TAG = "Argon2Cost";
+    static final long TARGET_MILLIS = 1000;
+    static final int MIN_MEMORY_KB = 19 * 1024; // OWASP's floor for Argon2id
+    static final int MAX_MEMORY_KB = 64 * 1024; // Portable: every device restores up to this
+    static final int MIN_ITERATIONS = 2;
+    static final int MAX_ITERATIONS = 32;
+    static final int MAX_PARALLELISM = 8;
+    private static final int PROBE_MEMORY_KB = 16 * 1024;
+    private static final byte[] PROBE_SALT = new byte[EncryptionUtil.ARGON2_SALT_LENGTH];
+
+    public final int memoryKB;
+    public final int iterations;
+    public final int parallelism;
+
+    public Argon2Cost(int memoryKB, int iterations, int parallelism) {
+        this.memoryKB = memoryKB;
+        this.iterations = iterations;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The largest memory cost new backups use: a quarter of the heap, so a restore can still
+     * hold the pipeline and the database next to it, but never more than {@link #MAX_MEMORY_KB}.
+     */
+    static int memoryCeilingKB() {
+        return memoryCeilingKB(Runtime.getRuntime().maxMemory());
+    }
+
+    static int memoryCeilingKB(long maxHeapBytes) {
+        long quarterHeapKB = maxHeapBytes / 4 / 1024;
+        return (int) Math.max(MIN_MEMORY_KB, Math.min(MAX_MEMORY_KB, quarterHeapKB));
+    }
+
+    /**
+     * Times one small derivation and extrapolates, assuming the cost grows with memory times
+     * passes. The probe runs with the same number of lanes, so the rate it measures already
+     * includes their speedup on this device's cores.
+     * @return Parameters expected to take about {@code targetMillis} on this device.
+     */
+    static Argon2Cost calibrate(long targetMillis, int memoryCeilingKB, int cores) {
+        int parallelism = Math.max(1, Math.min(cores, MAX_PARALLELISM));
+        // The first run warms up the JIT and the allocator; only the second is timed
+        probe(parallelism);
+        long start = System.nanoTime();
+        probe(parallelism);
+        double nanosPerKBPass = (double) (System.nanoTime() - start) / PROBE_MEMORY_KB;
+
+        double budgetKBPasses = targetMillis * 1e6 / nanosPerKBPass;
+        int memoryKB = memoryCeilingKB;
+        int iterations = (int) (budgetKBPasses / memoryKB);
+        if (iterations < MIN_ITERATIONS) {
+            iterations = MIN_ITERATIONS;
+            memoryKB = (int) Math.max(MIN_MEMORY_KB, Math.min(memoryCeilingKB, budgetKBPasses / MIN_ITERATIONS));
+        }
+        iterations = Math.min(iterations, MAX_ITERATIONS);
+        memoryKB = Math.min(memoryKB, MAX_MEMORY_KB);
+        memoryKB -= memoryKB % (4 * parallelism); // Argon2 rounds memory down to whole sync points
+        Argon2Cost cost = new Argon2Cost(memoryKB, iterations, parallelism);
+        Log.i(TAG, String.format(Locale.ROOT, "Calibrated %s from %.1f ns per KB pass", cost, nanosPerKBPass));
+        return cost;
+    }
+
+    private static void probe(int parallelism) {
+        byte[] key = EncryptionUtil.deriveKeyArgon2("calibration", PROBE_SALT, PROBE_MEMORY_KB, 1, parallelism);
+        EncryptionUtil.secureDelete(key);
+    }
+
+    /**
+     * Checks parameters read from an untrusted header before any memory is allocated for them.
+     * Memory up to {@link #MAX_MEMORY_KB} is always accepted; more, which only backups from
+     * before that ceiling use, is accepted if it fits in half the heap.
+     * @return null if they are usable here, otherwise the reason they are not.
+     */
+    String validate() {
+        return validate(Runtime.getRuntime().maxMemory());
+    }
+
+    String validate(long maxHeapBytes) {
+        if (parallelism < 1 || parallelism > 255 || iterations < 1 || iterations > 1024
+                || memoryKB < 8 * parallelism || memoryKB > 4 * 1024 * 1024) {
+            return "Invalid key derivation parameters " + this;
+        }
+        if (memoryKB > MAX_MEMORY_KB && memoryKB * 1024L > maxHeapBytes / 2) {
+            return "Key derivation needs " + memoryKB / 1024 + " MB, more than this device allows";
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "m=" + memoryKB + "KB t=" + iterations + " p=" + parallelism;
+    }
+}
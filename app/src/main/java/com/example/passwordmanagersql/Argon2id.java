@@ -0,0 +1,395 @@
+package com.example.passwordmanagersql;
+
+import org.bouncycastle.crypto.digests.Blake2bDigest;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Argon2id (version 1.3, RFC 9106) that fills the lanes of each segment concurrently.
+ *
+ * BouncyCastle's Argon2BytesGenerator fills every lane on the calling thread, so extra lanes
+ * cost memory without saving time. Within one slice a lane only references blocks of other
+ * lanes from slices that are already complete, so the lanes of a slice can be filled in any
+ * order; the only synchronization needed is a barrier between slices. The output is
+ * byte-identical to BouncyCastle's for the same parameters.
+ *
+ * Lanes run on a shared pool sized to the core count. The calling thread fills lanes too and
+ * the pool only helps, so concurrent derivations never wait on each other for threads.
+ */
+final class Argon2id {
+    private static final int VERSION = 0x13;
+    private static final int TYPE_ID = 2;
+    private static final int SYNC_POINTS = 4;
+    private static final int BLOCK_LONGS = 128; // 1024-byte blocks
+    private static final int PREHASH_LENGTH = 64;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static volatile ExecutorService pool; // Created on the first derivation with more than one lane
+
+    private final long[] memory;
+    private final int lanes;
+    private final int laneLength;
+    private final int segmentLength;
+    private final int passes;
+
+    private Argon2id(int memoryKB, int iterations, int parallelism) {
+        segmentLength = memoryBlocks(memoryKB, parallelism) / (SYNC_POINTS * parallelism);
+        laneLength = segmentLength * SYNC_POINTS;
+        lanes = parallelism;
+        passes = iterations;
+        memory = new long[laneLength * lanes * BLOCK_LONGS];
+    }
+
+    /**
+     * @return The number of 1 KiB blocks filled for a cost of {@code memoryKB}. Same rounding as
+     * the reference: at least 8 blocks per lane, whole segments only.
+     */
+    static int memoryBlocks(int memoryKB, int parallelism) {
+        int blocks = Math.max(memoryKB, 2 * SYNC_POINTS * parallelism);
+        return blocks - blocks % (SYNC_POINTS * parallelism);
+    }
+
+    /**
+     * @return The {@code outLength}-byte Argon2id hash of {@code password}, without secret or
+     * associated data.
+     */
+    static byte[] derive(byte[] password, byte[] salt, int memoryKB, int iterations, int parallelism, int outLength) {
+        if (parallelism < 1 || iterations < 1 || outLength < 4) {
+            throw new IllegalArgumentException("Invalid Argon2 parameters");
+        }
+        Argon2id instance = new Argon2id(memoryKB, iterations, parallelism);
+        try {
+            instance.initialize(password, salt, memoryKB, outLength);
+            instance.fillMemory();
+            return instance.finish(outLength);
+        } finally {
+            Arrays.fill(instance.memory, 0);
+        }
+    }
+
+    private void initialize(byte[] password, byte[] salt, int memoryKB, int outLength) {
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH * 8);
+        int[] header = {lanes, outLength, memoryKB, passes, VERSION, TYPE_ID};
+        for (int value : header) {
+            updateInt(digest, value);
+        }
+        updateInt(digest, password.length);
+        digest.update(password, 0, password.length);
+        updateInt(digest, salt.length);
+        digest.update(salt, 0, salt.length);
+        updateInt(digest, 0); // Secret
+        updateInt(digest, 0); // Associated data
+
+        byte[] seed = new byte[PREHASH_LENGTH + 8];
+        digest.doFinal(seed, 0);
+        byte[] block = new byte[BLOCK_LONGS * 8];
+        for (int lane = 0; lane < lanes; lane++) {
+            for (int column = 0; column < 2; column++) {
+                putInt(seed, PREHASH_LENGTH, column);
+                putInt(seed, PREHASH_LENGTH + 4, lane);
+                hashLong(seed, block);
+                int offset = (lane * laneLength + column) * BLOCK_LONGS;
+                for (int i = 0; i < BLOCK_LONGS; i++) {
+                    memory[offset + i] = getLong(block, i * 8);
+                }
+            }
+        }
+        Arrays.fill(seed, (byte) 0);
+        Arrays.fill(block, (byte) 0);
+    }
+
+    private void fillMemory() {
+        for (int pass = 0; pass < passes; pass++) {
+            for (int slice = 0; slice < SYNC_POINTS; slice++) {
+                if (lanes == 1) {
+                    fillSegment(pass, slice, 0, new long[BLOCK_LONGS * 5]);
+                } else {
+                    fillSlice(pass, slice);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills one segment of every lane and returns when all of them are done. Helpers claim
+     * lanes from the same counter as the calling thread, so a busy pool only means the caller
+     * does more of the work itself.
+     */
+    private void fillSlice(int pass, int slice) {
+        AtomicInteger nextLane = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(lanes);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            long[] scratch = new long[BLOCK_LONGS * 5];
+            int lane;
+            while ((lane = nextLane.getAndIncrement()) < lanes) {
+                try {
+                    fillSegment(pass, slice, lane, scratch);
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        ExecutorService helpers = getPool();
+        for (int i = Math.min(lanes, POOL_SIZE) - 1; i > 0; i--) {
+            helpers.execute(worker);
+        }
+        worker.run();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true; // The helpers still write into memory, so the slice must finish first
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        Throwable t = failure.get();
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new IllegalStateException("Argon2 lane failed", t);
+        }
+    }
+
+    private static ExecutorService getPool() {
+        ExecutorService executor = pool;
+        if (executor == null) {
+            synchronized (Argon2id.class) {
+                executor = pool;
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(POOL_SIZE, runnable -> {
+                        Thread thread = new Thread(runnable, "argon2-lane");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    pool = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @param scratch Five blocks of working space: two for the compression function and three
+     *                for data-independent addressing.
+     */
+    private void fillSegment(int pass, int slice, int lane, long[] scratch) {
+        boolean dataIndependent = pass == 0 && slice < SYNC_POINTS / 2;
+        int addressOffset = 2 * BLOCK_LONGS;
+        int inputOffset = 3 * BLOCK_LONGS;
+        int zeroOffset = 4 * BLOCK_LONGS;
+        if (dataIndependent) {
+            Arrays.fill(scratch, inputOffset, inputOffset + 2 * BLOCK_LONGS, 0);
+            scratch[inputOffset] = pass;
+            scratch[inputOffset + 1] = lane;
+            scratch[inputOffset + 2] = slice;
+            scratch[inputOffset + 3] = (long) laneLength * lanes;
+            scratch[inputOffset + 4] = passes;
+            scratch[inputOffset + 5] = TYPE_ID;
+        }
+
+        int startIndex = 0;
+        if (pass == 0 && slice == 0) {
+            startIndex = 2; // The first two blocks of each lane come from the prehash
+            if (dataIndependent) {
+                nextAddresses(scratch, addressOffset, inputOffset, zeroOffset);
+            }
+        }
+
+        int current = lane * laneLength + slice * segmentLength + startIndex;
+        int previous = current % laneLength == 0 ? current + laneLength - 1 : current - 1;
+        for (int index = startIndex; index < segmentLength; index++, current++, previous++) {
+            if (current % laneLength == 1) {
+                previous = current - 1;
+            }
+            long pseudoRandom;
+            if (dataIndependent) {
+                if (index % BLOCK_LONGS == 0) {
+                    nextAddresses(scratch, addressOffset, inputOffset, zeroOffset);
+                }
+                pseudoRandom = scratch[addressOffset + index % BLOCK_LONGS];
+            } else {
+                pseudoRandom = memory[previous * BLOCK_LONGS];
+            }
+
+            int refLane = pass == 0 && slice == 0 ? lane : (int) ((pseudoRandom >>> 32) % lanes);
+            int refIndex = referenceIndex(pass, slice, index, pseudoRandom & 0xFFFFFFFFL, refLane == lane);
+            int reference = refLane * laneLength + refIndex;
+            fillBlock(memory, previous * BLOCK_LONGS, memory, reference * BLOCK_LONGS,
+                    memory, current * BLOCK_LONGS, pass > 0, scratch);
+        }
+    }
+
+    private int referenceIndex(int pass, int slice, int index, long pseudoRandom, boolean sameLane) {
+        long areaSize;
+        if (pass == 0) {
+            if (slice == 0) {
+                areaSize = index - 1;
+            } else if (sameLane) {
+                areaSize = slice * segmentLength + index - 1;
+            } else {
+                areaSize = slice * segmentLength + (index == 0 ? -1 : 0);
+            }
+        } else if (sameLane) {
+            areaSize = laneLength - segmentLength + index - 1;
+        } else {
+            areaSize = laneLength - segmentLength + (index == 0 ? -1 : 0);
+        }
+        long relative = (pseudoRandom * pseudoRandom) >>> 32;
+        relative = areaSize - 1 - ((areaSize * relative) >>> 32);
+        long start = pass != 0 && slice != SYNC_POINTS - 1 ? (long) (slice + 1) * segmentLength : 0;
+        return (int) ((start + relative) % laneLength);
+    }
+
+    private static void nextAddresses(long[] scratch, int addressOffset, int inputOffset, int zeroOffset) {
+        scratch[inputOffset + 6]++;
+        fillBlock(scratch, zeroOffset, scratch, inputOffset, scratch, addressOffset, false, scratch);
+        fillBlock(scratch, zeroOffset, scratch, addressOffset, scratch, addressOffset, false, scratch);
+    }
+
+    /**
+     * The compression function G: {@code next = P(prev ^ ref) ^ (prev ^ ref)}, additionally
+     * XORed with the old {@code next} from the second pass on. Uses the first two blocks of
+     * {@code scratch}.
+     */
+    private static void fillBlock(long[] prevArray, int prev, long[] refArray, int ref,
+                                  long[] nextArray, int next, boolean withXor, long[] scratch) {
+        int r = 0;
+        int tmp = BLOCK_LONGS;
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            long value = prevArray[prev + i] ^ refArray[ref + i];
+            scratch[r + i] = value;
+            scratch[tmp + i] = withXor ? value ^ nextArray[next + i] : value;
+        }
+        for (int i = 0; i < 8; i++) {
+            int row = r + 16 * i;
+            roundNoMessage(scratch, row, row + 1, row + 2, row + 3, row + 4, row + 5, row + 6, row + 7,
+                    row + 8, row + 9, row + 10, row + 11, row + 12, row + 13, row + 14, row + 15);
+        }
+        for (int i = 0; i < 8; i++) {
+            int column = r + 2 * i;
+            roundNoMessage(scratch, column, column + 1, column + 16, column + 17, column + 32, column + 33,
+                    column + 48, column + 49, column + 64, column + 65, column + 80, column + 81,
+                    column + 96, column + 97, column + 112, column + 113);
+        }
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            nextArray[next + i] = scratch[tmp + i] ^ scratch[r + i];
+        }
+    }
+
+    private static void roundNoMessage(long[] v, int v0, int v1, int v2, int v3, int v4, int v5, int v6, int v7,
+                                       int v8, int v9, int v10, int v11, int v12, int v13, int v14, int v15) {
+        mix(v, v0, v4, v8, v12);
+        mix(v, v1, v5, v9, v13);
+        mix(v, v2, v6, v10, v14);
+        mix(v, v3, v7, v11, v15);
+        mix(v, v0, v5, v10, v15);
+        mix(v, v1, v6, v11, v12);
+        mix(v, v2, v7, v8, v13);
+        mix(v, v3, v4, v9, v14);
+    }
+
+    private static void mix(long[] v, int a, int b, int c, int d) {
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+        v[a] = blaMka(v[a], v[b]);
+        v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+        v[c] = blaMka(v[c], v[d]);
+        v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+    }
+
+    private static long blaMka(long x, long y) {
+        return x + y + 2 * (x & 0xFFFFFFFFL) * (y & 0xFFFFFFFFL);
+    }
+
+    private byte[] finish(int outLength) {
+        long[] last = new long[BLOCK_LONGS];
+        for (int lane = 0; lane < lanes; lane++) {
+            int offset = (lane * laneLength + laneLength - 1) * BLOCK_LONGS;
+            for (int i = 0; i < BLOCK_LONGS; i++) {
+                last[i] ^= memory[offset + i];
+            }
+        }
+        byte[] block = new byte[BLOCK_LONGS * 8];
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            putLong(block, i * 8, last[i]);
+        }
+        byte[] out = new byte[outLength];
+        hashLong(block, out);
+        Arrays.fill(last, 0);
+        Arrays.fill(block, (byte) 0);
+        return out;
+    }
+
+    /**
+     * The variable-length hash H' used for the first blocks and the final output.
+     */
+    private static void hashLong(byte[] input, byte[] out) {
+        byte[] length = new byte[4];
+        putInt(length, 0, out.length);
+        if (out.length <= PREHASH_LENGTH) {
+            Blake2bDigest digest = new Blake2bDigest(out.length * 8);
+            digest.update(length, 0, 4);
+            digest.update(input, 0, input.length);
+            digest.doFinal(out, 0);
+            return;
+        }
+        int half = PREHASH_LENGTH / 2;
+        Blake2bDigest digest = new Blake2bDigest(PREHASH_LENGTH * 8);
+        byte[] v = new byte[PREHASH_LENGTH];
+        digest.update(length, 0, 4);
+        digest.update(input, 0, input.length);
+        digest.doFinal(v, 0);
+        System.arraycopy(v, 0, out, 0, half);
+        int position = half;
+        while (out.length - position > PREHASH_LENGTH) {
+            digest.update(v, 0, v.length);
+            digest.doFinal(v, 0);
+            System.arraycopy(v, 0, out, position, half);
+            position += half;
+        }
+        Blake2bDigest lastDigest = new Blake2bDigest((out.length - position) * 8);
+        lastDigest.update(v, 0, v.length);
+        lastDigest.doFinal(out, position);
+        Arrays.fill(v, (byte) 0);
+    }
+
+    private static void updateInt(Blake2bDigest digest, int value) {
+        byte[] bytes = new byte[4];
+        putInt(bytes, 0, value);
+        digest.update(bytes, 0, 4);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+        bytes[offset + 2] = (byte) (value >>> 16);
+        bytes[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private static void putLong(byte[] bytes, int offset, long value) {
+        putInt(bytes, offset, (int) value);
+        putInt(bytes, offset + 4, (int) (value >>> 32));
+    }
+
+    private static long getLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.passwordmanagersql;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where a backup sits in a chain of one full backup followed by incremental ones.
+ *
+ * Each link records the change-log sequence range it covers: the full backup everything up
+ * to {@link #through}, each increment the changes after the previous link's {@code through}.
+ * The chain id and ranges are stored in the container header, so a restore can check that
+ * the files it was given form a complete chain before decrypting any of them.
+ *
+ * A restore opens every link with one passphrase, so a chain is only extended with the
+ * passphrase it was started with. The device keeps an Argon2 hash of that passphrase, under
+ * its own salt and at the same cost as the backups, to check it; a different passphrase
+ * starts a new chain with a full backup.
+ */
+public final class BackupChain {
+    private static final String PREFS_NAME = "BackupPrefs";
+    private static final String CHAIN_ID = "ChainId";
+    private static final String CHAIN_LINK = "ChainLink";
+    private static final String CHAIN_THROUGH = "ChainThrough";
+    private static final String PASSPHRASE_CHECK = "PassphraseCheck";
+    static final int ID_LENGTH = 16;
+    // Restoring replays every link, so the chain is restarted with a full backup now and then
+    static final int MAX_INCREMENTS = 30;
+
+    final byte[] id;
+    final int link; // 0 for the full backup
+    final long since;
+    final long through;
+    // m:t:p:salt:hash of the chain's passphrase, or null where unknown, as for a chain read from a file
+    private final String passphraseCheck;
+
+    BackupChain(byte[] id, int link, long since, long through) {
+        this(id, link, since, through, null);
+    }
+
+    private BackupChain(byte[] id, int link, long since, long through, String passphraseCheck) {
+        this.id = id;
+        this.link = link;
+        this.since = since;
+        this.through = through;
+        this.passphraseCheck = passphraseCheck;
+    }
+
+    /**
+     * @return The first link of a new chain: a full backup covering changes up to {@code through}.
+     */
+    static BackupChain start(long through) {
+        byte[] id = new byte[ID_LENGTH];
+        new SecureRandom().nextBytes(id);
+        return new BackupChain(id, 0, 0, through);
+    }
+
+    /**
+     * @return The increment after this link, covering changes up to {@code through}.
+     */
+    BackupChain next(long through) {
+        return new BackupChain(id, link + 1, this.through, through, passphraseCheck);
+    }
+
+    boolean isFull() {
+        return link == 0;
+    }
+
+    /**
+     * Costs one Argon2 derivation, so call it off the main thread.
+     * @return Whether the next backup, encrypted with {@code passphrase}, should be incremental
+     * rather than start a new chain.
+     */
+    boolean canExtend(String passphrase) {
+        return link < MAX_INCREMENTS && passphraseCheck != null && matches(passphraseCheck, passphrase);
+    }
+
+    /**
+     * @return A hash to check {@code passphrase} against later, under a new random salt.
+     */
+    static String passphraseCheck(String passphrase, Argon2Cost cost) {
+        byte[] salt = new byte[EncryptionUtil.ARGON2_SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+        byte[] hash = EncryptionUtil.deriveKeyArgon2(passphrase, salt, cost.memoryKB, cost.iterations, cost.parallelism);
+        try {
+            return cost.memoryKB + ":" + cost.iterations + ":" + cost.parallelism + ":" + toHex(salt) + ":" + toHex(hash);
+        } finally {
+            EncryptionUtil.secureDelete(hash);
+        }
+    }
+
+    static boolean matches(String passphraseCheck, String passphrase) {
+        String[] parts = passphraseCheck.split(":");
+        if (parts.length != 5) {
+            return false;
+        }
+        Argon2Cost cost;
+        byte[] salt;
+        byte[] expected;
+        try {
+            cost = new Argon2Cost(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+            salt = fromHex(parts[3]);
+            expected = fromHex(parts[4]);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (cost.validate() != null) {
+            return false;
+        }
+        byte[] actual = EncryptionUtil.deriveKeyArgon2(passphrase, salt, cost.memoryKB, cost.iterations, cost.parallelism);
+        try {
+            return MessageDigest.isEqual(actual, expected);
+        } finally {
+            EncryptionUtil.secureDelete(actual);
+        }
+    }
+
+    String getFileName() {
+        String chain = String.format(Locale.ROOT, "%02x%02x%02x%02x", id[0], id[1], id[2], id[3]);
+        return isFull()
+                ? "password_backup_" + chain + "_full.aegis"
+                : String.format(Locale.ROOT, "password_backup_%s_%03d.aegis", chain, link);
+    }
+
+    /**
+     * @return The last backup written on this device, or null if there is none.
+     */
+    static BackupChain load(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String id = prefs.getString(CHAIN_ID, null);
+        if (id == null) {
+            return null;
+        }
+        return new BackupChain(fromHex(id), prefs.getInt(CHAIN_LINK, 0), 0, prefs.getLong(CHAIN_THROUGH, 0),
+                prefs.getString(PASSPHRASE_CHECK, null));
+    }
+
+    /**
+     * Records this link as the last backup, once its file has been written completely. A full
+     * backup also records a check for {@code passphrase}, which its increments must match.
+     */
+    void save(Context context, String passphrase) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(CHAIN_ID, toHex(id))
+                .putInt(CHAIN_LINK, link)
+                .putLong(CHAIN_THROUGH, through);
+        if (isFull()) {
+            editor.putString(PASSPHRASE_CHECK, passphraseCheck(passphrase, EncryptionUtil.getCalibratedArgon2Cost()));
+        }
+        editor.apply();
+    }
+
+    /**
+     * Checks that backup files form one complete chain and puts them in replay order.
+     * @param links The chain of each file, or null for a backup made before the container.
+     * @return Indexes into {@code links}, newest link first.
+     * @throws BrokenChainException if the files are not one full backup and every increment after it.
+     */
+    static int[] replayOrder(List<BackupChain> links) throws BrokenChainException {
+        BackupChain[] ordered = new BackupChain[links.size()];
+        for (BackupChain link : links) {
+            if (link == null) {
+                throw new BrokenChainException("Older backups can only be restored one at a time");
+            }
+            if (link.link < 0 || link.link >= ordered.length) {
+                continue; // Leaves a gap below, reported as the first missing link
+            }
+            if (ordered[link.link] != null) {
+                throw new BrokenChainException("Backup " + link.getFileName() + " was selected twice");
+            }
+            ordered[link.link] = link;
+        }
+        for (int i = 0; i < ordered.length; i++) {
+            if (ordered[i] == null) {
+                throw new BrokenChainException(i == 0
+                        ? "Select the full backup together with its incremental backups"
+                        : "Incremental backup " + i + " is missing");
+            }
+        }
+        for (int i = 1; i < ordered.length; i++) {
+            if (!Arrays.equals(ordered[i].id, ordered[0].id)) {
+                throw new BrokenChainException("Backups from different chains cannot be restored together");
+            }
+            if (ordered[i].since != ordered[i - 1].through) {
+                throw new BrokenChainException("Incremental backup " + i + " does not follow the one before it");
+            }
+        }
+        int[] order = new int[ordered.length];
+        for (int i = 0; i < links.size(); i++) {
+            order[ordered.length - 1 - links.get(i).link] = i;
+        }
+        return order;
+    }
+
+    /**
+     * The selected files cannot be restored together; the message says why.
+     */
+    public static final class BrokenChainException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BrokenChainException(String message) {
+            super(message);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,599 @@
+package com.example.passwordmanagersql;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Passphrase-protected backup file with a single key derivation per file.
+ *
+ * Version 3, written by {@link Writer}, is one stream from header to end marker:
+ * <pre>
+ * header  : magic "AEGB" | version (1) | memory KB (4) | iterations (4) | parallelism (4) | salt (16)
+ *           | flags (1) | chunk size (4) | nonce prefix (7)
+ *           | chain id (16) | link (4) | since (8) | through (8)
+ * body    : chunks of {@link ChunkedAeadOutputStream}, each authenticated with the header,
+ *           over the records, zlib-compressed if flagged
+ * records : 4 | entry id (4) | modified at (8) | website | username | password,
+ *           each field as DataOutputStream.writeUTF
+ *           3 | entry id (4), for an entry deleted since the previous link of the chain
+ * end     : 0
+ * </pre>
+ *
+ * Records are serialized, compressed and encrypted as they are written, and read back the same
+ * way, so neither side holds more than a chunk of the backup at a time. The final chunk is
+ * flagged, so a truncated file fails to restore; restores stage what they read and only merge
+ * it into the vault once the whole file has been read, see {@link BatchInserter}. The
+ * chain fields place the file in a {@link BackupChain}; entry ids let a later link replace or
+ * delete an entry of an earlier one, and modification times let a restore tell which of two
+ * versions of an entry is newer.
+ *
+ * Versions 1 and 2 were never released and are not read. Backups made before the container
+ * hold one passphrase-encrypted entry per line; {@link #isContainer} tells them apart.
+ */
+public final class BackupContainer {
+    static final byte[] MAGIC = {'A', 'E', 'G', 'B'};
+    static final byte FORMAT_VERSION = 3;
+    static final byte FLAG_COMPRESSED = 1;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final byte END = 0;
+    private static final byte DELETION = 3;
+    private static final byte TIMED_ENTRY = 4;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 3 * 4 + EncryptionUtil.ARGON2_SALT_LENGTH
+            + 1 + 4 + ChunkedAeadOutputStream.NONCE_PREFIX_LENGTH + BackupChain.ID_LENGTH + 4 + 8 + 8;
+
+    private BackupContainer() {
+    }
+
+    /**
+     * Checks whether a stream starts with the container magic without consuming it.
+     * @param in A stream that supports mark/reset.
+     * @return true if the stream holds a container, false for legacy line-per-entry backups.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static boolean isContainer(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("Stream must support mark/reset");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        in.mark(magic.length);
+        try {
+            int read = 0;
+            while (read < magic.length) {
+                int n = in.read(magic, read, magic.length - read);
+                if (n < 0) {
+                    return false;
+                }
+                read += n;
+            }
+            return Arrays.equals(magic, MAGIC);
+        } finally {
+            in.reset();
+        }
+    }
+
+    // Record fields use the DataOutputStream.writeUTF encoding; these read and write it in place,
+    // so a password can go between a SecretBuffer and a char[] without becoming a String.
+
+    private static int utfLength(char[] chars) throws UTFDataFormatException {
+        int length = 0;
+        for (char c : chars) {
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        if (length > 0xFFFF) {
+            throw new UTFDataFormatException("Field too long: " + length + " bytes");
+        }
+        return 2 + length;
+    }
+
+    private static void putUtf(ByteBuffer out, char[] chars) throws UTFDataFormatException {
+        out.putShort((short) (utfLength(chars) - 2));
+        for (char c : chars) {
+            if (c >= 0x0001 && c <= 0x007F) {
+                out.put((byte) c);
+            } else if (c <= 0x07FF) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * @return The decoded field. The caller zero-fills it when it held a secret.
+     */
+    private static char[] getUtf(ByteBuffer in) throws UTFDataFormatException {
+        if (in.remaining() < 2) {
+            throw new UTFDataFormatException("Truncated field");
+        }
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new UTFDataFormatException("Truncated field");
+        }
+        int end = in.position() + length;
+        char[] chars = new char[length];
+        int count = 0;
+        try {
+            while (in.position() < end) {
+                int a = in.get() & 0xFF;
+                if (a < 0x80) {
+                    chars[count++] = (char) a;
+                } else if ((a & 0xE0) == 0xC0 && in.position() < end) {
+                    chars[count++] = (char) (((a & 0x1F) << 6) | continuation(in));
+                } else if ((a & 0xF0) == 0xE0 && in.position() + 1 < end) {
+                    int b = continuation(in);
+                    chars[count++] = (char) (((a & 0x0F) << 12) | (b << 6) | continuation(in));
+                } else {
+                    throw new UTFDataFormatException("Malformed field");
+                }
+            }
+            return Arrays.copyOf(chars, count);
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    private static int continuation(ByteBuffer in) throws UTFDataFormatException {
+        int b = in.get() & 0xFF;
+        if ((b & 0xC0) != 0x80) {
+            throw new UTFDataFormatException("Malformed field");
+        }
+        return b & 0x3F;
+    }
+
+    /**
+     * Reads only the header of a container, without deriving its key.
+     * @param in The source stream, positioned at the magic.
+     * @return The chain the file belongs to.
+     * @throws IOException if the header is missing or has an unsupported version.
+     */
+    public static BackupChain readChain(InputStream in) throws IOException {
+        return new Header(new DataInputStream(in)).chain;
+    }
+
+    private static final class Header {
+        final byte[] bytes = new byte[HEADER_LENGTH];
+        final int memory;
+        final int iterations;
+        final int parallelism;
+        final byte[] salt = new byte[EncryptionUtil.ARGON2_SALT_LENGTH];
+        final byte flags;
+        final int chunkSize;
+        final byte[] noncePrefix = new byte[ChunkedAeadOutputStream.NONCE_PREFIX_LENGTH];
+        final BackupChain chain;
+
+        Header(DataInputStream in) throws IOException {
+            int start = MAGIC.length + 1;
+            in.readFully(bytes, 0, start);
+            if (!Arrays.equals(Arrays.copyOf(bytes, MAGIC.length), MAGIC)) {
+                throw new IOException("Not an Aegis backup container");
+            }
+            byte version = bytes[MAGIC.length];
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported backup version " + version);
+            }
+            in.readFully(bytes, start, bytes.length - start);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.position(start);
+            memory = buffer.getInt();
+            iterations = buffer.getInt();
+            parallelism = buffer.getInt();
+            buffer.get(salt);
+            String unusable = new Argon2Cost(memory, iterations, parallelism).validate();
+            if (unusable != null) {
+                throw new IOException(unusable);
+            }
+            flags = buffer.get();
+            if ((flags & ~FLAG_COMPRESSED) != 0) {
+                throw new IOException("Unsupported backup flags " + flags);
+            }
+            chunkSize = buffer.getInt();
+            if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+                throw new IOException("Invalid chunk size " + chunkSize);
+            }
+            buffer.get(noncePrefix);
+            byte[] chainId = new byte[BackupChain.ID_LENGTH];
+            buffer.get(chainId);
+            chain = new BackupChain(chainId, buffer.getInt(), buffer.getLong(), buffer.getLong());
+        }
+    }
+
+    public static final class Writer implements Closeable {
+        private final OutputStream out;
+        private final ChunkedAeadOutputStream chunks;
+        private final DataOutputStream records;
+        private final Deflater deflater; // Null when not compressing
+        private byte[] scratch = new byte[256]; // One serialized record at a time, wiped after each
+        private boolean finished;
+
+        /**
+         * Writes a compressed container header and derives the file key once.
+         * @see #Writer(OutputStream, String, BackupChain, boolean)
+         */
+        public Writer(OutputStream out, String passphrase, BackupChain chain) throws IOException, GeneralSecurityException {
+            this(out, passphrase, chain, true);
+        }
+
+        /**
+         * Writes the container header and derives the file key once.
+         * @param out The destination stream. It is closed together with the writer.
+         * @param passphrase The backup passphrase.
+         * @param chain The link of the backup chain this file is.
+         * @param compress Whether records are compressed before they are encrypted.
+         * @throws IOException if the header cannot be written.
+         * @throws GeneralSecurityException if the cipher cannot be created.
+         * @implNote This method assumes that the passphrase has been validated externally.
+         */
+        public Writer(OutputStream out, String passphrase, BackupChain chain, boolean compress) throws IOException, GeneralSecurityException {
+            this.out = out;
+            SecureRandom secureRandom = new SecureRandom();
+            byte[] salt = new byte[EncryptionUtil.ARGON2_SALT_LENGTH];
+            secureRandom.nextBytes(salt);
+            byte[] noncePrefix = new byte[ChunkedAeadOutputStream.NONCE_PREFIX_LENGTH];
+            secureRandom.nextBytes(noncePrefix);
+
+            // Calibrated for this device; the header records them so any device can restore
+            Argon2Cost cost = EncryptionUtil.getCalibratedArgon2Cost();
+            int memory = cost.memoryKB;
+            int iterations = cost.iterations;
+            int parallelism = cost.parallelism;
+            byte[] header = ByteBuffer.allocate(HEADER_LENGTH)
+                    .put(MAGIC)
+                    .put(FORMAT_VERSION)
+                    .putInt(memory)
+                    .putInt(iterations)
+                    .putInt(parallelism)
+                    .put(salt)
+                    .put(compress ? FLAG_COMPRESSED : 0)
+                    .putInt(CHUNK_SIZE)
+                    .put(noncePrefix)
+                    .put(chain.id)
+                    .putInt(chain.link)
+                    .putLong(chain.since)
+                    .putLong(chain.through)
+                    .array();
+
+            SecretKeySpec key;
+            byte[] derivedKey = EncryptionUtil.deriveKeyArgon2(passphrase, salt, memory, iterations, parallelism);
+            try {
+                key = new SecretKeySpec(derivedKey, "AES");
+            } finally {
+                EncryptionUtil.secureDelete(derivedKey);
+            }
+            out.write(header);
+            chunks = new ChunkedAeadOutputStream(out, key, noncePrefix, header, CHUNK_SIZE);
+            if (compress) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                records = new DataOutputStream(new DeflaterOutputStream(chunks, deflater, STREAM_BUFFER_SIZE));
+            } else {
+                deflater = null;
+                records = new DataOutputStream(chunks);
+            }
+        }
+
+        /**
+         * Writes an entry whose password is held in a {@link SecretBuffer}, without turning
+         * the password into a String.
+         * @param entryId The entry's id in this vault, which later links of the chain refer to.
+         * @param updatedAt When the entry last changed, or 0 if unknown.
+         * @param password UTF-8 bytes between position and limit. The position is not moved.
+         */
+        public void write(int entryId, long updatedAt, String website, String username, SecretBuffer password) throws IOException {
+            char[] chars = password.decodeUtf8();
+            try {
+                write(entryId, updatedAt, website, username, chars);
+            } finally {
+                Arrays.fill(chars, '\0');
+            }
+        }
+
+        /**
+         * Records that an entry written by an earlier link of the chain has been deleted.
+         */
+        public void writeDeletion(int entryId) throws IOException {
+            if (finished) {
+                throw new IOException("Backup already finished");
+            }
+            records.writeByte(DELETION);
+            records.writeInt(entryId);
+        }
+
+        private void write(int entryId, long updatedAt, String website, String username, char[] password) throws IOException {
+            if (finished) {
+                throw new IOException("Backup already finished");
+            }
+            char[] websiteChars = (website != null ? website : "").toCharArray();
+            char[] usernameChars = (username != null ? username : "").toCharArray();
+            int length = 13 + utfLength(websiteChars) + utfLength(usernameChars) + utfLength(password);
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            try {
+                ByteBuffer fields = ByteBuffer.wrap(scratch, 0, length);
+                fields.put(TIMED_ENTRY);
+                fields.putInt(entryId);
+                fields.putLong(updatedAt);
+                putUtf(fields, websiteChars);
+                putUtf(fields, usernameChars);
+                putUtf(fields, password);
+                records.write(scratch, 0, length);
+            } finally {
+                Arrays.fill(scratch, 0, length, (byte) 0);
+            }
+        }
+
+        /**
+         * Writes the end marker and seals the final chunk. A backup closed without this call
+         * is left without its final chunk, so it cannot be restored as if it were complete.
+         */
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            records.writeByte(END);
+            records.close();
+            finished = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!finished) {
+                    chunks.abandon();
+                }
+            } finally {
+                Arrays.fill(scratch, (byte) 0);
+                if (deflater != null) {
+                    deflater.end();
+                }
+                out.close();
+            }
+        }
+    }
+
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+        private final BackupChain chain;
+        private final ChunkedAeadInputStream chunks;
+        private final DataInputStream records;
+        private final Inflater inflater; // Only with compression
+        private byte[] scratch = new byte[256]; // One serialized record at a time, wiped after each
+        private boolean finished;
+
+        /**
+         * Reads the container header and derives the file key with the parameters stored in it.
+         * @param in The source stream, positioned at the magic.
+         * @param passphrase The backup passphrase.
+         * @throws IOException if the header is missing or has an unsupported version.
+         * @throws GeneralSecurityException if the cipher cannot be created.
+         */
+        public Reader(InputStream in, String passphrase) throws IOException, GeneralSecurityException {
+            this.in = new DataInputStream(in);
+            Header parsed = new Header(this.in);
+            chain = parsed.chain;
+
+            SecretKeySpec key;
+            byte[] derivedKey = EncryptionUtil.deriveKeyArgon2(passphrase, parsed.salt, parsed.memory, parsed.iterations, parsed.parallelism);
+            try {
+                key = new SecretKeySpec(derivedKey, "AES");
+            } finally {
+                EncryptionUtil.secureDelete(derivedKey);
+            }
+
+            chunks = new ChunkedAeadInputStream(this.in, key, parsed.noncePrefix, parsed.bytes, parsed.chunkSize);
+            if ((parsed.flags & FLAG_COMPRESSED) != 0) {
+                inflater = new Inflater();
+                records = new DataInputStream(new InflaterInputStream(chunks, inflater, STREAM_BUFFER_SIZE));
+            } else {
+                inflater = null;
+                records = new DataInputStream(chunks);
+            }
+        }
+
+        /**
+         * @return The chain this file belongs to.
+         */
+        public BackupChain getChain() {
+            return chain;
+        }
+
+        /**
+         * Reads and authenticates the next record.
+         * @return The next record, or null once the end marker has been reached.
+         * @throws IOException if the file is truncated or malformed.
+         * @throws SecurityException if the passphrase is wrong or the record was tampered with.
+         */
+        public BackupRecord read() throws Exception {
+            SealedRecord sealed = readSealed();
+            return sealed != null ? open(sealed) : null;
+        }
+
+        /**
+         * Reads the next record without opening it, so the work of turning it into an entry
+         * can happen on another thread. Records are authenticated and decrypted here, chunk
+         * by chunk.
+         * @return The next record, or null once the end marker has been reached.
+         * @throws IOException if the file is truncated or malformed.
+         * @throws SecurityException if the passphrase is wrong or a chunk was tampered with.
+         */
+        public SealedRecord readSealed() throws IOException {
+            if (finished) {
+                return null;
+            }
+
+            int tag = records.read();
+            if (tag == END) {
+                // Reading on to the end authenticates the final chunk, which proves nothing was cut off
+                if (records.read() != -1 || chunks.read() != -1) {
+                    throw new IOException("Data after the end marker");
+                }
+                finished = true;
+                return null;
+            }
+            if (tag != DELETION && tag != TIMED_ENTRY) {
+                throw new IOException(tag < 0 ? "Backup is truncated" : "Invalid record tag " + tag);
+            }
+            int length = 0;
+            try {
+                int entryId = records.readInt();
+                if (tag == DELETION) {
+                    return new SealedRecord(entryId);
+                }
+                long updatedAt = records.readLong();
+                for (int field = 0; field < 3; field++) {
+                    int fieldLength = records.readUnsignedShort();
+                    if (scratch.length < length + 2 + fieldLength) {
+                        byte[] grown = Arrays.copyOf(scratch, Math.max(length + 2 + fieldLength, scratch.length * 2));
+                        Arrays.fill(scratch, (byte) 0);
+                        scratch = grown;
+                    }
+                    scratch[length] = (byte) (fieldLength >>> 8);
+                    scratch[length + 1] = (byte) fieldLength;
+                    records.readFully(scratch, length + 2, fieldLength);
+                    length += 2 + fieldLength;
+                }
+                SecretBuffer plain = SecretBuffer.allocate(length);
+                plain.buffer().put(scratch, 0, length).flip();
+                return new SealedRecord(entryId, updatedAt, plain);
+            } catch (EOFException e) {
+                throw new IOException("Backup is truncated", e);
+            } finally {
+                Arrays.fill(scratch, 0, length, (byte) 0);
+            }
+        }
+
+        /**
+         * Opens a record returned by {@link #readSealed()}.
+         * Safe to call from several threads at once.
+         * @throws SecurityException if the passphrase is wrong or the record was tampered with.
+         */
+        public BackupRecord open(SealedRecord sealed) throws Exception {
+            try (SecretBuffer plain = unseal(sealed)) {
+                ByteBuffer fields = plain.buffer();
+                String website = new String(getUtf(fields));
+                String username = new String(getUtf(fields));
+                char[] password = getUtf(fields);
+                try {
+                    return new BackupRecord(website, username, new String(password));
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }
+        }
+
+        /**
+         * Opens a record and re-encrypts its password for the vault, without the password
+         * becoming a String. Safe to call from several threads at once.
+         * @return An entry ready to insert.
+         * @throws SecurityException if the passphrase is wrong or the record was tampered with.
+         */
+        public PasswordEntry openEntry(SealedRecord sealed) throws Exception {
+            try (SecretBuffer plain = unseal(sealed)) {
+                ByteBuffer fields = plain.buffer();
+                String website = new String(getUtf(fields));
+                String username = new String(getUtf(fields));
+                char[] password = getUtf(fields);
+                try (SecretBuffer utf8 = SecretBuffer.encodeUtf8(password, 0, password.length)) {
+                    PasswordEntry entry = new PasswordEntry(website, username, EncryptionUtil.encrypt(utf8));
+                    entry.setUpdatedAt(sealed.updatedAt);
+                    return entry;
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+            }
+        }
+
+        /**
+         * @return The record's fields, flipped for reading. The caller closes the buffer.
+         */
+        private SecretBuffer unseal(SealedRecord sealed) {
+            if (sealed.deletion) {
+                throw new IllegalStateException("A deletion has no fields");
+            }
+            return sealed.plain;
+        }
+
+        @Override
+        public void close() throws IOException {
+            Arrays.fill(scratch, (byte) 0);
+            try {
+                chunks.close();
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * A record read and authenticated but not yet opened; only its plaintext fields are held.
+     */
+    public static final class SealedRecord {
+        private final int entryId;
+        private final long updatedAt;
+        private final boolean deletion;
+        private final SecretBuffer plain;
+
+        private SealedRecord(int entryId, long updatedAt, SecretBuffer plain) {
+            this(entryId, updatedAt, false, plain);
+        }
+
+        private SealedRecord(int entryId) {
+            this(entryId, 0, true, null);
+        }
+
+        private SealedRecord(int entryId, long updatedAt, boolean deletion, SecretBuffer plain) {
+            this.entryId = entryId;
+            this.updatedAt = updatedAt;
+            this.deletion = deletion;
+            this.plain = plain;
+        }
+
+        /**
+         * @return The entry's id in the vault the backup was made from.
+         */
+        public int getEntryId() {
+            return entryId;
+        }
+
+        /**
+         * @return Whether this records a deletion; it has no fields to open.
+         */
+        public boolean isDeletion() {
+            return deletion;
+        }
+
+        /**
+         * Wipes a record that will not be opened.
+         */
+        public void discard() {
+            if (plain != null) {
+                plain.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.passwordmanagersql;
+
+// BackupRecord.java
+public class BackupRecord {
+    public final String website;
+    public final String username;
+    public final String password;
+
+    public BackupRecord(String website, String username, String password) {
+        this.website = website;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Parses the "website,username,password" payload used by line-per-entry backups.
+     * @param line The decrypted legacy payload.
+     * @return The parsed record, or null if the line does not have exactly three fields.
+     */
+    public static BackupRecord fromLegacyLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length != 3) {
+            return null;
+        }
+        return new BackupRecord(parts[0], parts[1], parts[2]);
+    }
+}
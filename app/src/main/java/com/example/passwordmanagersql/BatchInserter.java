@@ -0,0 +1,136 @@
+package com.example.passwordmanagersql;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Collects restored entries into fixed-size batches and stages each batch in one transaction,
+ * see {@link StagedEntry}. Nothing reaches the vault until {@link #commit()} merges everything
+ * staged in a single transaction, resolving duplicates by a {@link ConflictPolicy}, so a restore
+ * that fails part-way changes nothing. Only one batch is in flight at a time, so rows keep their
+ * restore order while the caller prepares the next batch.
+ */
+public class BatchInserter {
+    private static final String TAG = "BatchInserter";
+    public static final int BATCH_SIZE = 250;
+
+    public interface Listener {
+        /**
+         * Called on the thread adding entries, once a batch has been staged.
+         * @param committed Entries staged so far.
+         */
+        void onBatchCommitted(int committed);
+    }
+
+    private final PasswordViewModel passwordViewModel;
+    private final ConflictPolicy policy;
+    private final int batchSize;
+    private List<PasswordEntry> batch;
+    private Future<Void> pending;
+    private int added;
+    private int kept;
+    private Listener listener;
+
+    public BatchInserter(PasswordViewModel passwordViewModel, ConflictPolicy policy) {
+        this(passwordViewModel, policy, BATCH_SIZE);
+    }
+
+    public BatchInserter(PasswordViewModel passwordViewModel, ConflictPolicy policy, int batchSize) {
+        this.passwordViewModel = passwordViewModel;
+        this.policy = policy;
+        this.batchSize = batchSize;
+        this.batch = new ArrayList<>(batchSize);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void add(PasswordEntry passwordEntry) throws ExecutionException, InterruptedException {
+        batch.add(passwordEntry);
+        if (batch.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    private void flush() throws ExecutionException, InterruptedException {
+        awaitPending();
+        if (batch.isEmpty()) {
+            return;
+        }
+        pending = passwordViewModel.stageAll(batch);
+        added += batch.size();
+        batch = new ArrayList<>(batchSize);
+    }
+
+    private void awaitPending() throws ExecutionException, InterruptedException {
+        if (pending != null) {
+            pending.get();
+            pending = null;
+            if (listener != null) {
+                listener.onBatchCommitted(added);
+            }
+        }
+    }
+
+    /**
+     * Stages the remaining entries and blocks until the last batch is staged. More entries may
+     * be added afterwards, as when restoring the links of a chain one after another.
+     * @return The number of entries staged so far.
+     */
+    public int finish() throws ExecutionException, InterruptedException {
+        flush();
+        awaitPending();
+        return added;
+    }
+
+    /**
+     * Merges everything staged into the vault in one transaction. If that fails, the staged
+     * entries are dropped and the vault is left as it was.
+     * @return The number of entries inserted or replacing an entry in the vault.
+     */
+    public int commit() throws ExecutionException, InterruptedException {
+        finish();
+        try {
+            kept = passwordViewModel.promoteStaged(policy).get();
+        } catch (ExecutionException e) {
+            discard();
+            throw e;
+        }
+        return added - kept;
+    }
+
+    /**
+     * Drops everything staged so far without touching the vault, and blocks until it is gone.
+     * Failures are only logged, since the staging table is emptied on the next open anyway.
+     */
+    public void discard() throws InterruptedException {
+        batch = new ArrayList<>(batchSize);
+        try {
+            if (pending != null) {
+                pending.get();
+            }
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Staging failed before the discard: " + e.getCause());
+        } finally {
+            pending = null;
+        }
+        try {
+            passwordViewModel.discardStaged().get();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not drop staged entries: " + e.getCause());
+        }
+        added = 0;
+    }
+
+    /**
+     * @return The number of entries left out because the vault's own entry was kept, once committed.
+     */
+    public int getKept() {
+        return kept;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.passwordmanagersql;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Reads a stream written by {@link ChunkedAeadOutputStream}. Bytes of a chunk are only
+ * returned once the whole chunk has been authenticated, and end of stream is only reported
+ * after the chunk carrying the final flag, so a truncated file fails instead of looking short.
+ */
+final class ChunkedAeadInputStream extends InputStream {
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final DataInputStream in;
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final byte[] aad;
+    private final Cipher cipher;
+    private final byte[] sealed;
+    private final byte[] plain;
+    private int position;
+    private int limit;
+    private int counter;
+    private boolean finished;
+
+    ChunkedAeadInputStream(InputStream in, SecretKey key, byte[] noncePrefix, byte[] aad, int chunkSize)
+            throws GeneralSecurityException {
+        this.in = new DataInputStream(in);
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.aad = aad.clone();
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+        this.sealed = new byte[chunkSize + ChunkedAeadOutputStream.TAG_LENGTH];
+        this.plain = new byte[chunkSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (finished) {
+                return -1;
+            }
+            open();
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(plain, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Reads, authenticates and decrypts the next chunk.
+     * @throws SecurityException if the key is wrong or the chunk was modified, moved or reordered.
+     */
+    private void open() throws IOException {
+        int header;
+        try {
+            header = in.readInt();
+        } catch (EOFException e) {
+            throw new IOException("Backup is truncated", e);
+        }
+        boolean last = (header & ChunkedAeadOutputStream.FINAL_CHUNK) != 0;
+        int length = header & ~ChunkedAeadOutputStream.FINAL_CHUNK;
+        if (length < ChunkedAeadOutputStream.TAG_LENGTH || length > sealed.length) {
+            throw new IOException("Invalid chunk length " + length);
+        }
+        in.readFully(sealed, 0, length);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(ChunkedAeadOutputStream.TAG_LENGTH * 8,
+                    ChunkedAeadOutputStream.nonce(noncePrefix, counter, last)));
+            cipher.updateAAD(aad);
+            limit = cipher.doFinal(sealed, 0, length, plain, 0);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Invalid passphrase or corrupted data", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot decrypt chunk", e);
+        }
+        position = 0;
+        counter++;
+        if (last) {
+            finished = true;
+            if (in.read() != -1) {
+                throw new IOException("Data after the final chunk");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(plain, (byte) 0);
+        position = limit = 0;
+        in.close();
+    }
+}
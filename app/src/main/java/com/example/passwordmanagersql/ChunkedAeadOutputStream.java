@@ -0,0 +1,144 @@
+package com.example.passwordmanagersql;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypts a stream in fixed-size AES-GCM chunks, following the STREAM construction: each chunk
+ * gets the nonce {@code prefix (7) | counter (4) | final flag (1)}, so chunks cannot be reordered,
+ * dropped or moved to another file without failing authentication, and the end of the stream
+ * is authenticated by the chunk that carries the final flag.
+ *
+ * <pre>
+ * chunk : final bit | length (31 bits) | AES-GCM(up to chunkSize bytes)
+ * </pre>
+ *
+ * Only one chunk of plaintext is held at a time, whatever the length of the stream.
+ */
+final class ChunkedAeadOutputStream extends OutputStream {
+    static final int NONCE_PREFIX_LENGTH = 7;
+    static final int TAG_LENGTH = 16;
+    static final int FINAL_CHUNK = 0x80000000;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final DataOutputStream out;
+    private final SecretKey key;
+    private final byte[] noncePrefix;
+    private final byte[] aad;
+    private final Cipher cipher;
+    private final byte[] plain;
+    private final byte[] sealed;
+    private int count;
+    private int counter;
+    private boolean closed;
+
+    /**
+     * @param aad Authenticated with every chunk, typically the file header.
+     */
+    ChunkedAeadOutputStream(OutputStream out, SecretKey key, byte[] noncePrefix, byte[] aad, int chunkSize)
+            throws GeneralSecurityException {
+        this.out = new DataOutputStream(out);
+        this.key = key;
+        this.noncePrefix = noncePrefix.clone();
+        this.aad = aad.clone();
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+        this.plain = new byte[chunkSize];
+        this.sealed = new byte[chunkSize + TAG_LENGTH];
+    }
+
+    static byte[] nonce(byte[] prefix, int counter, boolean last) {
+        return ByteBuffer.allocate(NONCE_PREFIX_LENGTH + 5)
+                .put(prefix)
+                .putInt(counter)
+                .put((byte) (last ? 1 : 0))
+                .array();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            // A full chunk is sealed only once more data arrives, so the final chunk is never empty
+            if (count == plain.length) {
+                seal(false);
+            }
+            int n = Math.min(len, plain.length - count);
+            System.arraycopy(b, off, plain, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void seal(boolean last) throws IOException {
+        if (counter == -1) {
+            throw new IOException("Stream too long");
+        }
+        int length;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce(noncePrefix, counter, last)));
+            cipher.updateAAD(aad);
+            length = cipher.doFinal(plain, 0, count, sealed, 0);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot encrypt chunk", e);
+        }
+        out.writeInt(length | (last ? FINAL_CHUNK : 0));
+        out.write(sealed, 0, length);
+        counter++;
+        count = 0;
+    }
+
+    /**
+     * Only passes the flush on; a partial chunk is sealed when more data arrives or on close.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the underlying stream without sealing a final chunk, for a write that failed
+     * part way. What was written cannot be read back as a complete stream.
+     */
+    void abandon() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Arrays.fill(plain, (byte) 0);
+        out.close();
+    }
+
+    /**
+     * Seals the final chunk, then closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            seal(true);
+            out.flush();
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+            out.close();
+        }
+    }
+}
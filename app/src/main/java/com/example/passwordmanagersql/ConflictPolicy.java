@@ -0,0 +1,43 @@
+package com.example.passwordmanagersql;
+
+import android.content.Context;
+
+/**
+ * What a restore does with a backup entry whose website and username match an entry already
+ * in the vault, compared by {@link PasswordEntry#matchKey(String, String)}. Entries with an
+ * unknown modification time, from backups made before times were recorded, count as older
+ * than any known time.
+ */
+public enum ConflictPolicy {
+    KEEP_NEWEST("Keep the newer one"),
+    KEEP_EXISTING("Keep the one in the vault"),
+    KEEP_BOTH("Keep both");
+
+    private static final String PREFS_NAME = "RestorePrefs";
+    private static final String CONFLICT_POLICY = "ConflictPolicy";
+
+    public final String label;
+
+    ConflictPolicy(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return The policy chosen for the last restore, or {@link #KEEP_NEWEST} if there was none.
+     */
+    static ConflictPolicy load(Context context) {
+        String name = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).getString(CONFLICT_POLICY, null);
+        for (ConflictPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        return KEEP_NEWEST;
+    }
+
+    void save(Context context) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(CONFLICT_POLICY, name())
+                .apply();
+    }
+}
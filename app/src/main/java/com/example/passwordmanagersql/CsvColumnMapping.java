@@ -0,0 +1,173 @@
+package com.example.passwordmanagersql;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Maps the columns of a password manager's CSV export onto entries, by the names in its header
+ * row. Known layouts:
+ * <pre>
+ * Chrome    : name, url, username, password, note
+ * Firefox   : url, username, password, httpRealm, formActionOrigin, guid, timeCreated,
+ *             timeLastUsed, timePasswordChanged
+ * Bitwarden : folder, favorite, type, name, notes, fields, reprompt, login_uri, login_username,
+ *             login_password, login_totp
+ * KeePass   : Account, Login Name, Password, Web Site, Comments (KeePass 2)
+ *             Group, Title, Username, Password, URL, Notes, TOTP, Icon, Last Modified, Created (KeePassXC)
+ * </pre>
+ * Other exports load too as long as their header names a password column and a URL or name.
+ * The website is the URL's host where there is one, so entries from different managers merge
+ * on the same key, and otherwise the entry's name. Records are the char arrays
+ * {@link CsvReader} returns, so the password is never copied into a string.
+ */
+final class CsvColumnMapping {
+    private static final String[] URL_COLUMNS = {"url", "login_uri", "web site", "website", "uri"};
+    private static final String[] NAME_COLUMNS = {"name", "title", "account"};
+    private static final String[] USERNAME_COLUMNS = {"username", "login_username", "login name", "user name", "login"};
+    private static final String[] PASSWORD_COLUMNS = {"password", "login_password"};
+    private static final String[] TYPE_COLUMNS = {"type"}; // Bitwarden, which also exports notes and cards
+    private static final String[] MILLIS_COLUMNS = {"timepasswordchanged"}; // Firefox
+    private static final String[] ISO_DATE_COLUMNS = {"last modified"}; // KeePassXC
+    private static final String LOGIN_TYPE = "login";
+
+    private final int url;
+    private final int name;
+    private final int username;
+    private final int password;
+    private final int type;
+    private final int modifiedMillis;
+    private final int modifiedIso;
+
+    private CsvColumnMapping(char[][] header) {
+        url = find(header, URL_COLUMNS);
+        name = find(header, NAME_COLUMNS);
+        username = find(header, USERNAME_COLUMNS);
+        password = find(header, PASSWORD_COLUMNS);
+        type = find(header, TYPE_COLUMNS);
+        modifiedMillis = find(header, MILLIS_COLUMNS);
+        modifiedIso = find(header, ISO_DATE_COLUMNS);
+    }
+
+    /**
+     * @param header The first record of the file.
+     * @throws IOException if the header has no password column, or neither a URL nor a name column.
+     */
+    static CsvColumnMapping fromHeader(char[][] header) throws IOException {
+        if (header == null) {
+            throw new IOException("The file is empty");
+        }
+        CsvColumnMapping mapping = new CsvColumnMapping(header);
+        if (mapping.password < 0 || (mapping.url < 0 && mapping.name < 0)) {
+            throw new IOException("Unrecognized CSV header: expected a password column and a URL or name column");
+        }
+        return mapping;
+    }
+
+    private static int find(char[][] header, String[] candidates) {
+        for (String candidate : candidates) {
+            for (int i = 0; i < header.length; i++) {
+                if (new String(header[i]).trim().equalsIgnoreCase(candidate)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether a record holds a login, rather than a note or card that has no place in the vault.
+     */
+    boolean isLogin(char[][] record) {
+        return type < 0 || get(record, type).isEmpty() || get(record, type).equalsIgnoreCase(LOGIN_TYPE);
+    }
+
+    /**
+     * Encrypts a record's password for the vault, then wipes the record. Runs on a worker thread.
+     * @return An entry ready to insert.
+     * @throws IllegalArgumentException if the record has no password or no website.
+     */
+    PasswordEntry toEntry(char[][] record) throws Exception {
+        try {
+            String website = website(record);
+            char[] secret = password(record);
+            if (secret.length == 0) {
+                throw new IllegalArgumentException("No password");
+            }
+            if (website.isEmpty()) {
+                throw new IllegalArgumentException("No website or name");
+            }
+            try (SecretBuffer utf8 = SecretBuffer.encodeUtf8(secret, 0, secret.length)) {
+                PasswordEntry entry = new PasswordEntry(website, username(record), EncryptionUtil.encrypt(utf8));
+                entry.setUpdatedAt(modifiedAt(record));
+                return entry;
+            }
+        } finally {
+            CsvReader.wipe(record);
+        }
+    }
+
+    /**
+     * @return The URL's host, or the entry's name if the record has no URL.
+     */
+    String website(char[][] record) {
+        String website = hostOf(get(record, url));
+        return website.isEmpty() ? get(record, name).trim() : website;
+    }
+
+    String username(char[][] record) {
+        return get(record, username).trim();
+    }
+
+    /**
+     * @return The record's own password field, not a copy, or an empty array if it has none.
+     */
+    char[] password(char[][] record) {
+        return password >= 0 && password < record.length ? record[password] : new char[0];
+    }
+
+    private static String get(char[][] record, int column) {
+        return column >= 0 && column < record.length ? new String(record[column]) : "";
+    }
+
+    /**
+     * @return The host of an absolute URL, the value itself if it has none, or "" if it is blank.
+     */
+    static String hostOf(String url) {
+        String value = url.trim();
+        try {
+            String host = new URI(value).getHost();
+            if (host != null) {
+                return host;
+            }
+        } catch (URISyntaxException e) {
+            // Not a URL, such as a bare domain with a space in the path; keep it as typed
+        }
+        return value;
+    }
+
+    /**
+     * @return The export's modification time in epoch milliseconds, or 0 if it has none.
+     */
+    long modifiedAt(char[][] record) {
+        String millis = get(record, modifiedMillis).trim();
+        if (!millis.isEmpty()) {
+            try {
+                return Long.parseLong(millis);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        String iso = get(record, modifiedIso).trim();
+        if (!iso.isEmpty()) {
+            try {
+                return Instant.parse(iso).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return 0;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.passwordmanagersql;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming RFC 4180 parser: comma-separated fields, optionally enclosed in double quotes, with
+ * doubled quotes inside a quoted field standing for one. Quoted fields may span lines. Records
+ * end at CRLF, LF or CR, and a leading byte order mark is skipped.
+ *
+ * Only the current record is held, and records longer than {@link #MAX_RECORD_LENGTH}
+ * characters are rejected, so memory stays constant whatever the size of the file. Fields are
+ * returned as char arrays rather than strings, since one of them is a password: the caller
+ * wipes each record with {@link #wipe(char[][])} once it is done with it, and the reader wipes
+ * its own buffers as it goes.
+ */
+final class CsvReader implements Closeable {
+    static final int MAX_RECORD_LENGTH = 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int INITIAL_FIELD_CAPACITY = 64;
+    private static final char[][] NO_FIELDS = new char[0][];
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private char[] field = new char[INITIAL_FIELD_CAPACITY];
+    private int fieldLength;
+    private final List<char[]> fields = new ArrayList<>();
+    private int position;
+    private int limit;
+    private int line = 1;
+    private boolean started;
+
+    CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return The line the next record starts on, for error messages.
+     */
+    int getLine() {
+        return line;
+    }
+
+    /**
+     * Overwrites every field of a record, once the caller no longer needs it.
+     */
+    static void wipe(char[][] record) {
+        if (record != null) {
+            for (char[] field : record) {
+                Arrays.fill(field, '\0');
+            }
+        }
+    }
+
+    /**
+     * @return The fields of the next record, or null at the end of the input. The caller wipes it.
+     * Blank lines are skipped rather than returned as a record with one empty field.
+     * @throws IOException if the input cannot be read, a quoted field is not closed, text
+     * follows a closing quote, or a record is too long.
+     */
+    char[][] readRecord() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            if (c == '\r' || c == '\n') {
+                endOfLine(c);
+                continue;
+            }
+            unread();
+            return parseRecord();
+        }
+    }
+
+    private char[][] parseRecord() throws IOException {
+        try {
+            return parseFields();
+        } catch (IOException e) {
+            wipe(fields.toArray(NO_FIELDS));
+            throw e;
+        } finally {
+            fields.clear();
+            Arrays.fill(field, 0, fieldLength, '\0');
+            fieldLength = 0;
+        }
+    }
+
+    private char[][] parseFields() throws IOException {
+        int start = line;
+        int length = 0;
+        boolean quoted = false;
+        boolean afterQuote = false; // A quoted field has been closed; only a delimiter may follow
+        while (true) {
+            int c = read();
+            boolean endOfRecord = c == -1 || (!quoted && (c == '\r' || c == '\n'));
+            if (!endOfRecord && ++length > MAX_RECORD_LENGTH) {
+                throw new IOException("Record starting on line " + start + " is too long");
+            }
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Quoted field starting on line " + start + " is not closed");
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        append('"');
+                    } else {
+                        quoted = false;
+                        afterQuote = true;
+                    }
+                } else {
+                    if (c == '\n' || (c == '\r' && peek() != '\n')) {
+                        line++;
+                    }
+                    append((char) c);
+                }
+            } else if (c == ',') {
+                endField();
+                afterQuote = false;
+            } else if (c == -1 || c == '\r' || c == '\n') {
+                if (c != -1) {
+                    endOfLine(c);
+                }
+                endField();
+                return fields.toArray(NO_FIELDS);
+            } else if (afterQuote) {
+                throw new IOException("Unexpected text after a closing quote on line " + line);
+            } else if (c == '"' && fieldLength == 0) {
+                quoted = true;
+            } else {
+                append((char) c); // A quote inside an unquoted field is kept as it is
+            }
+        }
+    }
+
+    private void append(char c) {
+        if (fieldLength == field.length) {
+            // Bounded by MAX_RECORD_LENGTH, which parseFields checks first
+            char[] grown = Arrays.copyOf(field, field.length * 2);
+            Arrays.fill(field, '\0');
+            field = grown;
+        }
+        field[fieldLength++] = c;
+    }
+
+    private void endField() {
+        fields.add(Arrays.copyOf(field, fieldLength));
+        Arrays.fill(field, 0, fieldLength, '\0');
+        fieldLength = 0;
+    }
+
+    private void endOfLine(int c) throws IOException {
+        if (c == '\r' && peek() == '\n') {
+            read();
+        }
+        line++;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private void unread() {
+        position--;
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        if (!started) {
+            started = true;
+            if (buffer[0] == BYTE_ORDER_MARK) {
+                position = 1;
+                return position < limit || fill();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        Arrays.fill(field, '\0');
+        Arrays.fill(buffer, '\0');
+        in.close();
+    }
+}
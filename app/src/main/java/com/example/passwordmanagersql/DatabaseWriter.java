@@ -0,0 +1,139 @@
+package com.example.passwordmanagersql;
+
+import android.util.Log;
+
+import androidx.room.RoomDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The only thread that writes to the database. Writes commit in the order they were submitted.
+ *
+ * Writes that arrive within {@link #COALESCE_WINDOW_MS} of each other share one transaction,
+ * so a burst of small updates costs a single commit. If any write in a shared transaction
+ * fails, the transaction is rolled back and each write is retried in its own transaction,
+ * so one failure never fails or undoes its neighbours. Futures complete only after commit.
+ */
+final class DatabaseWriter {
+    private static final String TAG = "DatabaseWriter";
+    static final long COALESCE_WINDOW_MS = 2;
+    static final int MAX_WRITES_PER_TRANSACTION = 64;
+
+    private static final class Write<T> {
+        final Callable<T> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final long queuedAt;
+        T result;
+
+        Write(Callable<T> task, long queuedAt) {
+            this.task = task;
+            this.queuedAt = queuedAt;
+        }
+
+        void run() throws Exception {
+            result = task.call();
+        }
+
+        void complete() {
+            future.complete(result);
+        }
+    }
+
+    private final RoomDatabase database;
+    private final BlockingQueue<Write<?>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorMetrics metrics = new ExecutorMetrics("writer");
+    private final AtomicLong transactions = new AtomicLong();
+
+    DatabaseWriter(RoomDatabase database) {
+        this.database = database;
+        Thread thread = new Thread(this::writeLoop, "database-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    <T> CompletableFuture<T> submit(Callable<T> task) {
+        Write<T> write = new Write<>(task, metrics.onQueued());
+        queue.add(write);
+        return write.future;
+    }
+
+    ExecutorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The number of transactions committed or attempted so far. Compared with
+     * {@link ExecutorMetrics#getStartedCount()} it shows how many writes were coalesced.
+     */
+    long getTransactionCount() {
+        return transactions.get();
+    }
+
+    private void writeLoop() {
+        List<Write<?>> batch = new ArrayList<>(MAX_WRITES_PER_TRANSACTION);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(COALESCE_WINDOW_MS);
+                while (batch.size() < MAX_WRITES_PER_TRANSACTION) {
+                    Write<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                for (Write<?> write : batch) {
+                    metrics.onStarted(write.queuedAt);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Writer interrupted; " + batch.size() + " writes in flight");
+                for (Write<?> write : batch) {
+                    write.future.completeExceptionally(e);
+                }
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void commit(List<Write<?>> batch) {
+        if (batch.size() > 1) {
+            try {
+                transactions.incrementAndGet();
+                database.runInTransaction(() -> {
+                    for (Write<?> write : batch) {
+                        write.run();
+                    }
+                    return null;
+                });
+                for (Write<?> write : batch) {
+                    write.complete();
+                }
+                return;
+            } catch (Throwable t) {
+                Log.w(TAG, "Coalesced transaction of " + batch.size() + " writes failed, retrying them one by one", t);
+            }
+        }
+        for (Write<?> write : batch) {
+            try {
+                transactions.incrementAndGet();
+                database.runInTransaction(() -> {
+                    write.run();
+                    return null;
+                });
+                write.complete();
+            } catch (Throwable t) {
+                write.future.completeExceptionally(t);
+            }
+        }
+    }
+}
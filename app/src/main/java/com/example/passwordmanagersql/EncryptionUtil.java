@@ -1,18 +1,26 @@
 package com.example.passwordmanagersql;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.util.Base64;
 import android.util.Log;
 
-import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
-import org.bouncycastle.crypto.params.Argon2Parameters;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
@@ -26,14 +34,53 @@ public class EncryptionUtil {
     private static final String TRANSFORMATION = "AES/GCM/NoPadding";
     private static final String ANDROID_KEYSTORE = "AndroidKeyStore";
     private static final String KEY_ALIAS = "MyEncryptionKey";
+    private static final String VERSIONED_KEY_ALIAS_PREFIX = "MyEncryptionKey_v";
     private static final int GCM_TAG_LENGTH = 128; // Tag length in bits
-
-
-    // Argon2 parameters
-    private final static int argon2Memory = 65536; // 64 MB
-    private final static int argon2Iterations = 16;
-    private final static int argon2Parallelism = 16;
-    private static final int ARGON2_SALT_LENGTH = 16;
+    private static final int GCM_IV_LENGTH = 12;
+
+    // Stored ciphertext: version (1) | key id (1) | iv (12) | AES-GCM ciphertext and tag
+    private static final byte CIPHERTEXT_VERSION = 1;
+    static final byte KEY_ID_KEYSTORE = 0; // Legacy rows sealed directly with the Keystore key
+    static final byte KEY_ID_DATA_KEY = 1; // First data key version; later versions count up from here
+    private static final int MAX_KEY_VERSION = 255; // Key ids are one unsigned header byte
+    private static final int CIPHERTEXT_HEADER_LENGTH = 2 + GCM_IV_LENGTH;
+    // Text prefix used by data-key rows before ciphertexts moved to a BLOB column
+    private static final String DATA_KEY_PREFIX = "dk1:";
+
+    // Envelope encryption: rows are sealed with a software data key that is stored wrapped by a Keystore key.
+    // Each data key version has its own Keystore alias; rotation adds a version instead of rewriting rows.
+    private static final int DATA_KEY_LENGTH = 32; // 256 bits
+    private static final String PREFS_NAME = "EncryptionPrefs";
+    private static final String WRAPPED_DATA_KEY = "WrappedDataKey";
+    private static final String WRAPPING_KEY_ALIAS = "WrappingKeyAlias";
+    private static final String CURRENT_KEY_VERSION = "CurrentKeyVersion";
+    private static final String KEY_VERSIONS = "KeyVersions";
+
+    private static Context appContext;
+    private static volatile int currentKeyVersion; // 0 until loaded from prefs
+    private static final Map<Integer, SecretKey> dataKeys = new ConcurrentHashMap<>();
+
+    // Loaded Keystore and key handles are cached; key generation and deletion invalidate them
+    private static volatile KeyStore keyStore;
+    private static final Map<String, SecretKey> keyHandles = new ConcurrentHashMap<>();
+    // Software AES ciphers are reused per thread. GCM still needs a fresh init (and IV) per operation.
+    private static final ThreadLocal<Cipher> pooledCipher = new ThreadLocal<>();
+    // Off-heap scratch space for the batch API, reused per thread and wiped after each use
+    private static final ThreadLocal<ByteBuffer> pooledBuffer = new ThreadLocal<>();
+    private static final int MIN_POOLED_BUFFER = 1024;
+    private static final SecureRandom secureRandom = new SecureRandom();
+
+
+    // Argon2 parameters of legacy line-per-entry backups, which do not record their own.
+    // Backup containers use the calibrated cost from getCalibratedArgon2Cost() instead.
+    final static int argon2Memory = 65536; // 64 MB
+    final static int argon2Iterations = 16;
+    final static int argon2Parallelism = 16;
+    private static final String ARGON2_MEMORY_KB = "Argon2MemoryKB";
+    private static final String ARGON2_ITERATIONS = "Argon2Iterations";
+    private static final String ARGON2_PARALLELISM = "Argon2Parallelism";
+    private static final String ARGON2_CALIBRATED_FOR = "Argon2CalibratedFor";
+    static final int ARGON2_SALT_LENGTH = 16;
     private static final int ARGON2_HASH_LENGTH = 32; // 256 bits
 
     /**
@@ -43,41 +90,341 @@ public class EncryptionUtil {
     public static void secureDelete(byte[] data) {
         if (data == null) return;
 
-        // Overwrite with zeros
+        // One pass clears RAM; extra patterns or random data only cost time in bulk loops
         Arrays.fill(data, (byte) 0);
+    }
 
-        // Overwrite with ones
-        Arrays.fill(data, (byte) 0xFF); //1
+    /**
+     * Must be called once per process before any vault encryption, see {@link AegisApplication}.
+     */
+    public static void init(Context context) {
+        appContext = context.getApplicationContext();
+    }
 
-        // Overwrite with random data
-        new SecureRandom().nextBytes(data);
+    private static SharedPreferences getPrefs() {
+        if (appContext == null) {
+            throw new IllegalStateException("EncryptionUtil.init() has not been called");
+        }
+        return appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    private static SecretKey getSecretKey() throws Exception {
-        KeyStore keyStore = KeyStore.getInstance(ANDROID_KEYSTORE);
-        keyStore.load(null);
+    private static KeyStore getKeyStore() throws Exception {
+        KeyStore loaded = keyStore;
+        if (loaded == null) {
+            synchronized (EncryptionUtil.class) {
+                if (keyStore == null) {
+                    KeyStore instance = KeyStore.getInstance(ANDROID_KEYSTORE);
+                    instance.load(null);
+                    keyStore = instance;
+                }
+                loaded = keyStore;
+            }
+        }
+        return loaded;
+    }
 
-        if (!keyStore.containsAlias(KEY_ALIAS)) {
-            generateKey();
+    private static SecretKey getSecretKey(String alias) throws Exception {
+        SecretKey cached = keyHandles.get(alias);
+        if (cached != null) {
+            return cached;
+        }
+        synchronized (EncryptionUtil.class) {
+            KeyStore store = getKeyStore();
+            if (!store.containsAlias(alias)) {
+                throw new KeyStoreException("Missing Keystore key " + alias);
+            }
+            SecretKey key = (SecretKey) store.getKey(alias, null);
+            keyHandles.put(alias, key);
+            return key;
         }
+    }
 
-        return (SecretKey) keyStore.getKey(KEY_ALIAS, null);
+    /**
+     * Returns this thread's reusable cipher for software keys.
+     * Keystore keys bind a cipher to their provider, so they always get a fresh instance.
+     */
+    static Cipher getPooledCipher() throws Exception {
+        Cipher cipher = pooledCipher.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(TRANSFORMATION);
+            pooledCipher.set(cipher);
+        }
+        return cipher;
     }
 
-    public static void generateNewKey() throws Exception {
-        KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
-        KeyGenParameterSpec keyGenParameterSpec = new KeyGenParameterSpec.Builder(
-                KEY_ALIAS,
-                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
-                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
-                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
-                .setKeySize(256)
-                .build();
+    private static Cipher cipherFor(SecretKey key) throws Exception {
+        return key instanceof SecretKeySpec ? getPooledCipher() : Cipher.getInstance(TRANSFORMATION);
+    }
 
-        keyGenerator.init(keyGenParameterSpec);
-        keyGenerator.generateKey();
+    private static String wrappedKeyPref(int version) {
+        return WRAPPED_DATA_KEY + "_v" + version;
+    }
+
+    private static String wrappingAliasPref(int version) {
+        return WRAPPING_KEY_ALIAS + "_v" + version;
+    }
+
+    /**
+     * @return The data key version used for new writes, creating version 1 for a new vault.
+     */
+    public static int getCurrentKeyVersion() throws Exception {
+        int version = currentKeyVersion;
+        if (version != 0) {
+            return version;
+        }
+        synchronized (EncryptionUtil.class) {
+            if (currentKeyVersion == 0) {
+                SharedPreferences prefs = getPrefs();
+                migrateUnversionedDataKey(prefs);
+                int stored = prefs.getInt(CURRENT_KEY_VERSION, 0);
+                if (stored == 0) {
+                    createKeyVersion(KEY_ID_DATA_KEY);
+                } else {
+                    currentKeyVersion = stored;
+                }
+            }
+            return currentKeyVersion;
+        }
+    }
+
+    /**
+     * Vaults created before key versioning hold a single wrapped data key; it becomes version 1.
+     */
+    private static void migrateUnversionedDataKey(SharedPreferences prefs) {
+        String wrapped = prefs.getString(WRAPPED_DATA_KEY, null);
+        if (wrapped == null || prefs.contains(CURRENT_KEY_VERSION)) {
+            return;
+        }
+        Set<String> versions = new HashSet<>();
+        versions.add(String.valueOf(KEY_ID_DATA_KEY));
+        boolean committed = prefs.edit()
+                .putString(wrappedKeyPref(KEY_ID_DATA_KEY), wrapped)
+                .putString(wrappingAliasPref(KEY_ID_DATA_KEY), prefs.getString(WRAPPING_KEY_ALIAS, KEY_ALIAS))
+                .putStringSet(KEY_VERSIONS, versions)
+                .putInt(CURRENT_KEY_VERSION, KEY_ID_DATA_KEY)
+                .remove(WRAPPED_DATA_KEY)
+                .remove(WRAPPING_KEY_ALIAS)
+                .commit();
+        if (!committed) {
+            throw new IllegalStateException("Failed to migrate wrapped data key");
+        }
+    }
+
+    /**
+     * Generates a data key and its Keystore wrapping key, then makes it current in one commit,
+     * so a crash leaves either the old or the new version current, never a half-written one.
+     */
+    private static void createKeyVersion(int version) throws Exception {
+        String alias = VERSIONED_KEY_ALIAS_PREFIX + version;
+        generateKey(alias);
+
+        byte[] rawKey = new byte[DATA_KEY_LENGTH];
+        try {
+            secureRandom.nextBytes(rawKey);
+            String wrapped = Base64.encodeToString(seal(getSecretKey(alias), rawKey), Base64.NO_WRAP);
+
+            SharedPreferences prefs = getPrefs();
+            Set<String> versions = new HashSet<>(prefs.getStringSet(KEY_VERSIONS, Collections.<String>emptySet()));
+            versions.add(String.valueOf(version));
+            boolean committed = prefs.edit()
+                    .putString(wrappedKeyPref(version), wrapped)
+                    .putString(wrappingAliasPref(version), alias)
+                    .putStringSet(KEY_VERSIONS, versions)
+                    .putInt(CURRENT_KEY_VERSION, version)
+                    .commit();
+            if (!committed) {
+                throw new IllegalStateException("Failed to persist wrapped data key");
+            }
+            dataKeys.put(version, new SecretKeySpec(rawKey, "AES"));
+            currentKeyVersion = version;
+        } finally {
+            secureDelete(rawKey);
+        }
+    }
+
+    /**
+     * Returns the data key for a version, unwrapping it with its Keystore key on first use in this session.
+     */
+    private static SecretKey getDataKey(int version) throws Exception {
+        SecretKey key = dataKeys.get(version);
+        if (key != null) {
+            return key;
+        }
+        synchronized (EncryptionUtil.class) {
+            key = dataKeys.get(version);
+            if (key != null) {
+                return key;
+            }
+            SharedPreferences prefs = getPrefs();
+            String wrapped = prefs.getString(wrappedKeyPref(version), null);
+            if (wrapped == null) {
+                throw new SecurityException("Unknown key version " + version);
+            }
+            String alias = prefs.getString(wrappingAliasPref(version), VERSIONED_KEY_ALIAS_PREFIX + version);
+            byte[] rawKey = null;
+            try {
+                rawKey = open(getSecretKey(alias), Base64.decode(wrapped, Base64.DEFAULT));
+                key = new SecretKeySpec(rawKey, "AES");
+                dataKeys.put(version, key);
+                return key;
+            } finally {
+                secureDelete(rawKey);
+            }
+        }
+    }
+
+    /**
+     * Drops the unwrapped data keys. The next encrypt or decrypt unwraps them again.
+     */
+    public static void lock() {
+        dataKeys.clear();
+    }
+
+    /**
+     * Makes a fresh data key, under a fresh Keystore alias, current for all new writes.
+     * Existing rows stay readable with their own version and are re-encrypted lazily.
+     * @return The new key version.
+     * @throws IllegalStateException if the next key id is still held by an unretired version.
+     */
+    public static synchronized int rotateKey() throws Exception {
+        int next = getCurrentKeyVersion() % MAX_KEY_VERSION + 1;
+        if (getKeyVersions().contains(next)) {
+            throw new IllegalStateException("Key version " + next + " has not been retired yet");
+        }
+        createKeyVersion(next);
+        return next;
+    }
+
+    private static Set<Integer> getKeyVersions() {
+        Set<Integer> versions = new HashSet<>();
+        for (String version : getPrefs().getStringSet(KEY_VERSIONS, Collections.<String>emptySet())) {
+            versions.add(Integer.parseInt(version));
+        }
+        return versions;
+    }
+
+    /**
+     * @return Key versions other than the current one that may still be referenced by rows,
+     * including {@link #KEY_ID_KEYSTORE} while the legacy Keystore key exists.
+     */
+    public static synchronized Set<Integer> getRetirableKeyVersions() throws Exception {
+        int current = getCurrentKeyVersion();
+        Set<Integer> versions = getKeyVersions();
+        versions.remove(current);
+        if (getKeyStore().containsAlias(KEY_ALIAS) && !isWrappingAlias(KEY_ALIAS)) {
+            versions.add((int) KEY_ID_KEYSTORE);
+        }
+        return versions;
+    }
+
+    /**
+     * Deletes a key version and its Keystore alias. Callers must first make sure that no row
+     * references it any more, and that no write sealed with it is still queued; see
+     * {@link PasswordRepository#retireKeyVersionIfUnused}.
+     */
+    public static synchronized void retireKeyVersion(int version) throws Exception {
+        if (version == getCurrentKeyVersion()) {
+            throw new IllegalArgumentException("Cannot retire the current key version");
+        }
+        String alias = KEY_ALIAS;
+        if (version != KEY_ID_KEYSTORE) {
+            SharedPreferences prefs = getPrefs();
+            alias = prefs.getString(wrappingAliasPref(version), VERSIONED_KEY_ALIAS_PREFIX + version);
+            Set<String> versions = new HashSet<>(prefs.getStringSet(KEY_VERSIONS, Collections.<String>emptySet()));
+            versions.remove(String.valueOf(version));
+            boolean committed = prefs.edit()
+                    .remove(wrappedKeyPref(version))
+                    .remove(wrappingAliasPref(version))
+                    .putStringSet(KEY_VERSIONS, versions)
+                    .commit();
+            if (!committed) {
+                throw new IllegalStateException("Failed to retire key version " + version);
+            }
+            dataKeys.remove(version);
+        }
+
+        KeyStore store = getKeyStore();
+        if (store.containsAlias(alias) && !isWrappingAlias(alias)) {
+            store.deleteEntry(alias);
+        }
+        keyHandles.remove(alias);
+    }
+
+    private static boolean isWrappingAlias(String alias) {
+        SharedPreferences prefs = getPrefs();
+        for (int version : getKeyVersions()) {
+            if (alias.equals(prefs.getString(wrappingAliasPref(version), VERSIONED_KEY_ALIAS_PREFIX + version))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The key version recorded in a stored ciphertext's header.
+     */
+    public static int getKeyVersion(byte[] encrypted) {
+        return encrypted[1] & 0xFF;
+    }
+
+    /**
+     * @return true if the value was sealed with an older key version and should be re-encrypted.
+     */
+    public static boolean needsReencryption(byte[] encrypted) throws Exception {
+        return getKeyVersion(encrypted) != getCurrentKeyVersion();
+    }
+
+    /**
+     * @return true if the value was encrypted directly with the Keystore key, before envelope encryption.
+     */
+    public static boolean isLegacyCiphertext(byte[] encrypted) {
+        return encrypted.length > 1 && encrypted[1] == KEY_ID_KEYSTORE;
+    }
+
+    /**
+     * Converts a Base64 ciphertext from the version 1 text column into the headered BLOB format.
+     * No decryption is involved; only the framing changes.
+     */
+    static byte[] fromLegacyText(String encrypted) {
+        byte keyId = KEY_ID_KEYSTORE;
+        if (encrypted.startsWith(DATA_KEY_PREFIX)) {
+            keyId = KEY_ID_DATA_KEY;
+            encrypted = encrypted.substring(DATA_KEY_PREFIX.length());
+        }
+        byte[] combined = Base64.decode(encrypted, Base64.DEFAULT);
+        byte[] blob = new byte[2 + combined.length];
+        blob[0] = CIPHERTEXT_VERSION;
+        blob[1] = keyId;
+        System.arraycopy(combined, 0, blob, 2, combined.length);
+        return blob;
+    }
+
+    private static byte[] seal(SecretKey key, byte[] plaintext) throws Exception {
+        Cipher cipher = cipherFor(key);
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(plaintext);
+        try {
+            byte[] combined = new byte[iv.length + encrypted.length];
+            System.arraycopy(iv, 0, combined, 0, iv.length);
+            System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+            return combined;
+        } finally {
+            secureDelete(encrypted);
+        }
+    }
+
+    private static byte[] open(SecretKey key, byte[] combined) throws Exception {
+        return open(key, combined, 0);
     }
 
+    private static byte[] open(SecretKey key, byte[] combined, int offset) throws Exception {
+        Cipher cipher = cipherFor(key);
+        GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, combined, offset, GCM_IV_LENGTH);
+        cipher.init(Cipher.DECRYPT_MODE, key, spec);
+        int ciphertextOffset = offset + GCM_IV_LENGTH;
+        return cipher.doFinal(combined, ciphertextOffset, combined.length - ciphertextOffset);
+    }
 
     /**
      * Encrypts data with a passphrase.
@@ -179,26 +526,52 @@ public class EncryptionUtil {
         }
     }
 
-    private static byte[] deriveKeyArgon2(String passphrase, byte[] salt) {
-        Argon2Parameters params = new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
-                .withSalt(salt)
-                .withParallelism(argon2Parallelism)
-                .withMemoryAsKB(argon2Memory)
-                .withIterations(argon2Iterations)
-                .build();
+    /**
+     * Returns the Argon2 cost for new backups, calibrating it on the first call. The result is
+     * kept until the heap limit or core count it was calibrated for changes.
+     */
+    static synchronized Argon2Cost getCalibratedArgon2Cost() {
+        int ceiling = Argon2Cost.memoryCeilingKB();
+        int cores = Runtime.getRuntime().availableProcessors();
+        String calibratedFor = Argon2Cost.TARGET_MILLIS + "/" + ceiling + "/" + cores;
+        SharedPreferences prefs = getPrefs();
+        if (calibratedFor.equals(prefs.getString(ARGON2_CALIBRATED_FOR, null))) {
+            return new Argon2Cost(prefs.getInt(ARGON2_MEMORY_KB, argon2Memory),
+                    prefs.getInt(ARGON2_ITERATIONS, argon2Iterations),
+                    prefs.getInt(ARGON2_PARALLELISM, argon2Parallelism));
+        }
+        Argon2Cost cost = Argon2Cost.calibrate(Argon2Cost.TARGET_MILLIS, ceiling, cores);
+        prefs.edit()
+                .putInt(ARGON2_MEMORY_KB, cost.memoryKB)
+                .putInt(ARGON2_ITERATIONS, cost.iterations)
+                .putInt(ARGON2_PARALLELISM, cost.parallelism)
+                .putString(ARGON2_CALIBRATED_FOR, calibratedFor)
+                .apply();
+        return cost;
+    }
 
-        Argon2BytesGenerator generator = new Argon2BytesGenerator();
-        generator.init(params);
+    private static byte[] deriveKeyArgon2(String passphrase, byte[] salt) {
+        return deriveKeyArgon2(passphrase, salt, argon2Memory, argon2Iterations, argon2Parallelism);
+    }
 
-        byte[] result = new byte[ARGON2_HASH_LENGTH];
-        generator.generateBytes(passphrase.getBytes(StandardCharsets.UTF_8), result);
-        return result;
+    /**
+     * Derives a 256-bit key with Argon2id using explicit cost parameters,
+     * as recorded in a backup container header.
+     */
+    static byte[] deriveKeyArgon2(String passphrase, byte[] salt, int memoryKB, int iterations, int parallelism) {
+        byte[] password = passphrase.getBytes(StandardCharsets.UTF_8);
+        try {
+            return Argon2id.derive(password, salt, memoryKB, iterations, parallelism, ARGON2_HASH_LENGTH);
+        } finally {
+            secureDelete(password);
+        }
     }
 
-    private static void generateKey() throws Exception {
+    private static synchronized void generateKey(String alias) throws Exception {
+        keyHandles.remove(alias);
         KeyGenerator keyGenerator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEYSTORE);
         KeyGenParameterSpec keyGenParameterSpec = new KeyGenParameterSpec.Builder(
-                KEY_ALIAS,
+                alias,
                 KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
                 .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
                 .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
@@ -210,74 +583,327 @@ public class EncryptionUtil {
     }
 
     /**
-     * Encrypts data using the Android KeyStore.
+     * Encrypts data with the vault data key.
      * @param value The string to encrypt.
-     * @return The encrypted data as a Base64 encoded string.
+     * @return The headered ciphertext, ready for the BLOB column.
      * @throws Exception if encryption fails.
      */
-    public static String encrypt(String value) throws Exception {
-        byte[] encrypted = null;
-        byte[] iv = null;
+    public static byte[] encrypt(String value) throws Exception {
         try {
-            SecretKey secretKey = getSecretKey();
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+            return encryptAll(Collections.singletonList(value)).get(0);
+        } catch (Exception e) {
+            Log.e("EncryptionUtil", "Encryption error", e);
+            throw e;
+        }
+    }
 
-            encrypted = cipher.doFinal(value.getBytes(StandardCharsets.UTF_8));
-            iv = cipher.getIV();
+    /**
+     * Encrypts a plaintext held in a {@link SecretBuffer} with the vault data key.
+     * @param plaintext UTF-8 bytes between position and limit. The position is advanced to the limit.
+     * @return The headered ciphertext, ready for the BLOB column.
+     * @throws Exception if encryption fails.
+     */
+    public static byte[] encrypt(SecretBuffer plaintext) throws Exception {
+        int version = getCurrentKeyVersion();
+        return seal(getPooledCipher(), version, getDataKey(version), new byte[GCM_IV_LENGTH], plaintext.buffer());
+    }
 
-            byte[] combined = new byte[iv.length + encrypted.length];
-            System.arraycopy(iv, 0, combined, 0, iv.length);
-            System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+    /**
+     * Compares two stored ciphertexts by their plaintext. The plaintexts stay in
+     * {@link SecretBuffer}s and are compared in constant time.
+     * @return Whether both hold the same password; false if either cannot be decrypted, so an
+     * unreadable entry is never taken for a duplicate.
+     */
+    static boolean sameSecret(byte[] first, byte[] second) {
+        if (first == null || second == null) {
+            return first == second;
+        }
+        if (Arrays.equals(first, second)) {
+            return true;
+        }
+        try (SecretBuffer a = decryptToBuffer(first); SecretBuffer b = decryptToBuffer(second)) {
+            ByteBuffer x = a.buffer();
+            ByteBuffer y = b.buffer();
+            int length = Math.min(x.remaining(), y.remaining());
+            int diff = x.remaining() ^ y.remaining();
+            for (int i = 0; i < length; i++) {
+                diff |= x.get(x.position() + i) ^ y.get(y.position() + i);
+            }
+            return diff == 0;
+        } catch (Exception e) {
+            Log.w("EncryptionUtil", "Could not compare two passwords: " + e);
+            return false;
+        }
+    }
 
-            return Base64.encodeToString(combined, Base64.DEFAULT);
+    /**
+     * Decrypts a stored ciphertext into a {@link SecretBuffer}, so the plaintext never lands on the heap.
+     * @return The UTF-8 plaintext between position and limit. The caller closes it.
+     * @throws SecurityException if the value fails authentication.
+     * @throws Exception if decryption fails.
+     */
+    public static SecretBuffer decryptToBuffer(byte[] encrypted) throws Exception {
+        if (isLegacyCiphertext(encrypted)) {
+            byte[] legacy = openLegacy(encrypted);
+            try {
+                SecretBuffer secret = SecretBuffer.allocate(legacy.length);
+                secret.buffer().put(legacy).flip();
+                return secret;
+            } finally {
+                secureDelete(legacy);
+            }
+        }
+        SecretBuffer secret = SecretBuffer.allocate(Math.max(0, encrypted.length - sealedLength(0)));
+        try {
+            openInto(getPooledCipher(), new byte[GCM_IV_LENGTH], ByteBuffer.wrap(encrypted), secret.buffer());
+            secret.buffer().flip();
+            return secret;
         } catch (Exception e) {
-            Log.e("EncryptionUtil", "Encryption error", e);
+            secret.close();
             throw e;
-        } finally {
-            secureDelete(encrypted);
-            secureDelete(iv);
         }
     }
 
     /**
-     * Decrypts data using the Android KeyStore.
-     * @param encrypted The encrypted data as a Base64 encoded string.
+     * Re-encrypts stored ciphertexts under the current key version, one key lookup for the
+     * whole list. Each plaintext only exists in a pooled buffer, wiped before the next one.
+     * @return The new ciphertexts, in the same order.
+     * @throws SecurityException if any value fails authentication.
+     * @throws Exception if decryption or encryption fails.
+     */
+    public static List<byte[]> reencryptAll(List<byte[]> ciphertexts) throws Exception {
+        int version = getCurrentKeyVersion();
+        SecretKey key = getDataKey(version);
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        List<byte[]> reencrypted = new ArrayList<>(ciphertexts.size());
+        for (byte[] ciphertext : ciphertexts) {
+            try (SecretBuffer plaintext = decryptToBuffer(ciphertext)) {
+                reencrypted.add(seal(getPooledCipher(), version, key, iv, plaintext.buffer()));
+            }
+        }
+        return reencrypted;
+    }
+
+    /**
+     * Decrypts data encrypted with the vault data key, or with the Keystore key for legacy rows.
+     * @param encrypted The headered ciphertext.
      * @return The decrypted string.
      * @throws Exception if decryption fails.
      */
-    public static String decrypt(String encrypted) throws Exception {
-        byte[] combined = null;
-        byte[] iv = null;
-        byte[] encryptedData = null;
-        byte[] decrypted = null;
+    public static String decrypt(byte[] encrypted) throws Exception {
         try {
-            combined = Base64.decode(encrypted, Base64.DEFAULT);
+            return decryptAll(Collections.singletonList(encrypted)).get(0);
+        } catch (SecurityException e) {
+            Log.e("EncryptionUtil", "Authentication failed during decryption", e);
+            throw e;
+        } catch (Exception e) {
+            Log.e("EncryptionUtil", "Decryption error", e);
+            throw e;
+        }
+    }
 
-            iv = new byte[12];
-            encryptedData = new byte[combined.length - iv.length];
+    /**
+     * Like {@link #decrypt(byte[])}, but without creating a String: the plaintext only ever
+     * exists in wiped scratch space and in the returned array.
+     * @return The decrypted characters. The caller zero-fills them when done.
+     * @throws Exception if decryption fails.
+     */
+    public static char[] decryptToChars(byte[] encrypted) throws Exception {
+        try (SecretBuffer plaintext = decryptToBuffer(encrypted)) {
+            return plaintext.decodeUtf8();
+        } catch (Exception e) {
+            Log.e("EncryptionUtil", "Decryption error", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Encrypts several values with one key lookup and one cipher.
+     * @param values The strings to encrypt.
+     * @return The headered ciphertexts, in the same order.
+     * @throws Exception if encryption fails.
+     */
+    public static List<byte[]> encryptAll(List<String> values) throws Exception {
+        int version = getCurrentKeyVersion();
+        SecretKey key = getDataKey(version);
+        Cipher cipher = getPooledCipher();
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        List<byte[]> encrypted = new ArrayList<>(values.size());
+        for (String value : values) {
+            char[] chars = value.toCharArray();
+            try (SecretBuffer plaintext = SecretBuffer.encodeUtf8(chars, 0, chars.length)) {
+                encrypted.add(seal(cipher, version, key, iv, plaintext.buffer()));
+            } finally {
+                Arrays.fill(chars, '\0');
+            }
+        }
+        return encrypted;
+    }
 
-            System.arraycopy(combined, 0, iv, 0, iv.length);
-            System.arraycopy(combined, iv.length, encryptedData, 0, encryptedData.length);
+    /**
+     * Decrypts several values with one key lookup and one cipher.
+     * @param values Ciphertexts as returned by {@link #encrypt(String)}, or legacy Keystore ciphertexts.
+     * @return The plaintexts, in the same order.
+     * @throws SecurityException if any value fails authentication.
+     * @throws Exception if decryption fails.
+     */
+    public static List<String> decryptAll(List<byte[]> values) throws Exception {
+        List<String> decrypted = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            char[] chars = decryptToChars(value);
+            try {
+                decrypted.add(new String(chars));
+            } finally {
+                Arrays.fill(chars, '\0');
+            }
+        }
+        return decrypted;
+    }
 
-            SecretKey secretKey = getSecretKey();
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            GCMParameterSpec spec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+    /**
+     * Seals each plaintext with the data key and writes headered records back to back
+     * into {@code out}, without intermediate arrays or strings.
+     * @param plaintexts The records to encrypt. Their positions are advanced to their limits.
+     * @param out The destination, or null to use this thread's pooled buffer, which stays valid
+     *            until the next batch call on the same thread.
+     * @return One read-only view per sealed record, backed by {@code out}.
+     * @throws Exception if encryption fails or {@code out} is too small.
+     */
+    public static List<ByteBuffer> encryptAll(List<ByteBuffer> plaintexts, ByteBuffer out) throws Exception {
+        int required = 0;
+        for (ByteBuffer plaintext : plaintexts) {
+            required += sealedLength(plaintext.remaining());
+        }
+        out = prepareOutput(out, required);
+
+        int version = getCurrentKeyVersion();
+        SecretKey key = getDataKey(version);
+        Cipher cipher = getPooledCipher();
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        List<ByteBuffer> sealed = new ArrayList<>(plaintexts.size());
+        for (ByteBuffer plaintext : plaintexts) {
+            int start = out.position();
+            sealInto(cipher, version, key, iv, plaintext, out);
+            sealed.add(view(out, start));
+        }
+        return sealed;
+    }
+
+    /**
+     * Opens records written by {@link #encryptAll(List, ByteBuffer)}, with any live key version, into {@code out}.
+     * @param ciphertexts The sealed records. Their positions are advanced to their limits.
+     * @param out The destination, or null to use this thread's pooled buffer. Callers should
+     *            {@link #wipe(ByteBuffer)} it once the plaintexts have been consumed.
+     * @return One read-only view per plaintext, backed by {@code out}.
+     * @throws SecurityException if any record fails authentication.
+     * @throws Exception if decryption fails or {@code out} is too small.
+     */
+    public static List<ByteBuffer> decryptAll(List<ByteBuffer> ciphertexts, ByteBuffer out) throws Exception {
+        int required = 0;
+        for (ByteBuffer ciphertext : ciphertexts) {
+            required += ciphertext.remaining() - sealedLength(0);
+        }
+        out = prepareOutput(out, required);
+
+        Cipher cipher = getPooledCipher();
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        List<ByteBuffer> opened = new ArrayList<>(ciphertexts.size());
+        for (ByteBuffer ciphertext : ciphertexts) {
+            int start = out.position();
+            openInto(cipher, iv, ciphertext, out);
+            opened.add(view(out, start));
+        }
+        return opened;
+    }
+
+    /**
+     * @return The size of a stored ciphertext, header included, for a plaintext of the given length.
+     */
+    public static int sealedLength(int plaintextLength) {
+        return CIPHERTEXT_HEADER_LENGTH + plaintextLength + GCM_TAG_LENGTH / 8;
+    }
+
+    /**
+     * Zero-fills the whole capacity of a buffer and clears it.
+     */
+    public static void wipe(ByteBuffer buffer) {
+        if (buffer == null) return;
+        SecretBuffer.wipe(buffer);
+    }
+
+    /**
+     * Seals a plaintext into a new array. The ciphertext is not secret, so it may live on the heap.
+     */
+    private static byte[] seal(Cipher cipher, int version, SecretKey key, byte[] iv, ByteBuffer plaintext) throws Exception {
+        ByteBuffer out = ByteBuffer.allocate(sealedLength(plaintext.remaining()));
+        sealInto(cipher, version, key, iv, plaintext, out);
+        return out.array();
+    }
+
+    private static void sealInto(Cipher cipher, int version, SecretKey key, byte[] iv, ByteBuffer plaintext, ByteBuffer out) throws Exception {
+        secureRandom.nextBytes(iv);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+        out.put(CIPHERTEXT_VERSION);
+        out.put((byte) version);
+        out.put(iv);
+        cipher.doFinal(plaintext, out);
+    }
 
-            decrypted = cipher.doFinal(encryptedData);
-            return new String(decrypted, StandardCharsets.UTF_8);
+    private static void openInto(Cipher cipher, byte[] iv, ByteBuffer ciphertext, ByteBuffer out) throws Exception {
+        if (ciphertext.remaining() < sealedLength(0)) {
+            throw new SecurityException("Invalid key or corrupted data");
+        }
+        byte version = ciphertext.get();
+        int keyVersion = ciphertext.get() & 0xFF;
+        if (version != CIPHERTEXT_VERSION || keyVersion == KEY_ID_KEYSTORE) {
+            throw new SecurityException("Unsupported ciphertext version " + version + " or key id " + keyVersion);
+        }
+        SecretKey key = getDataKey(keyVersion);
+        ciphertext.get(iv);
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            cipher.doFinal(ciphertext, out);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Invalid key or corrupted data", e);
+        }
+    }
+
+    private static ByteBuffer prepareOutput(ByteBuffer out, int required) {
+        if (out == null) {
+            return getPooledBuffer(required);
+        }
+        if (out.remaining() < required) {
+            throw new IllegalArgumentException("Output buffer needs " + required + " bytes, has " + out.remaining());
+        }
+        return out;
+    }
+
+    /**
+     * Returns this thread's scratch buffer, cleared and grown to at least the given capacity.
+     */
+    private static ByteBuffer getPooledBuffer(int capacity) {
+        ByteBuffer buffer = pooledBuffer.get();
+        if (buffer == null || buffer.capacity() < capacity) {
+            wipe(buffer);
+            buffer = ByteBuffer.allocateDirect(Math.max(capacity, MIN_POOLED_BUFFER));
+            pooledBuffer.set(buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private static ByteBuffer view(ByteBuffer out, int start) {
+        ByteBuffer view = out.duplicate();
+        view.limit(out.position());
+        view.position(start);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private static byte[] openLegacy(byte[] encrypted) throws Exception {
+        try {
+            return open(getSecretKey(KEY_ALIAS), encrypted, 2);
         } catch (AEADBadTagException e) {
-            Log.e("EncryptionUtil", "Authentication failed during decryption", e);
             throw new SecurityException("Invalid key or corrupted data", e);
-        } catch (Exception e) {
-            Log.e("EncryptionUtil", "Decryption error", e);
-            throw e;
-        } finally {
-            secureDelete(combined);
-            secureDelete(iv);
-            secureDelete(encryptedData);
-            secureDelete(decrypted);
         }
     }
-}
\ No newline at end of file
+}
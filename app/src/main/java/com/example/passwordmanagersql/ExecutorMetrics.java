@@ -0,0 +1,74 @@
+package com.example.passwordmanagersql;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth and queueing delay of one database executor. Tasks are counted when they are
+ * queued and timed from then until a thread picks them up.
+ */
+public final class ExecutorMetrics {
+    private final String name;
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    ExecutorMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The time the task was queued, to pass to {@link #onStarted(long)}.
+     */
+    long onQueued() {
+        queueDepth.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void onStarted(long queuedAt) {
+        long wait = System.nanoTime() - queuedAt;
+        queueDepth.decrementAndGet();
+        started.incrementAndGet();
+        totalWaitNanos.addAndGet(wait);
+        long max;
+        while (wait > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, wait)) {
+            // Retry until the maximum is recorded
+        }
+    }
+
+    /**
+     * Wraps a task so that its queueing delay is recorded when it starts.
+     */
+    Runnable wrap(Runnable task) {
+        long queuedAt = onQueued();
+        return () -> {
+            onStarted(queuedAt);
+            task.run();
+        };
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    public double getMeanWaitMillis() {
+        long count = started.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s: depth=%d started=%d meanWait=%.2fms maxWait=%.2fms",
+                name, getQueueDepth(), getStartedCount(), getMeanWaitMillis(), getMaxWaitMillis());
+    }
+}
@@ -2,10 +2,12 @@ package com.example.passwordmanagersql;
 
 import android.app.Application;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.work.Constraints;
+import androidx.work.Data;
 import androidx.work.ExistingPeriodicWorkPolicy;
 import androidx.work.NetworkType;
 import androidx.work.PeriodicWorkRequest;
@@ -15,6 +17,7 @@ import androidx.work.WorkerParameters;
 
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -23,16 +26,44 @@ public class KeyRotationManager {
     public static final double ROTATION_INTERVAL = 7 * 24 * 60 * 60 * 1000L; // 14 days in milliseconds
     private static final String PREFS_NAME = "KeyRotationPrefs";
     private static final String LAST_ROTATION_TIME = "LastRotationTime";
+    // Sweep checkpoint: the last id re-encrypted, valid only for the key version it was swept towards
+    private static final String SWEEP_CHECKPOINT_ID = "SweepCheckpointId";
+    private static final String SWEEP_CHECKPOINT_VERSION = "SweepCheckpointVersion";
+    private static final int SWEEP_CHUNK_SIZE = 100;
+    // A value encrypted just before a rotation can still be on its way to the writer, such as in a
+    // restore batch, so old key versions are only retired once the rotation is this old
+    private static final long RETIREMENT_GRACE_MS = 60 * 60 * 1000L;
+    private static final String WORK_NAME = "keyRotationWork";
+
+    // Keys of the progress Data published by KeyRotationWorker
+    public static final String PROGRESS_LAST_ID = "lastId";
+    public static final String PROGRESS_REENCRYPTED = "reencrypted";
+
     private final Context context;
 
+    public interface SweepListener {
+        /**
+         * Called after each chunk has committed and the checkpoint has been saved.
+         * @return false to stop the sweep; the next sweep resumes after {@code lastId}.
+         */
+        boolean onChunkCommitted(int lastId, int reencrypted);
+    }
+
     public KeyRotationManager(Context context) {
         this.context = context;
     }
 
+    /**
+     * Enqueues the daily rotation and sweep work. Safe to call on every launch: an existing
+     * schedule is updated in place rather than cancelled, so its next run time is kept.
+     */
     public void scheduleKeyRotation() {
         Log.d(TAG, "Scheduling key rotation");
+        // Re-encrypting the vault is deferrable; only run it while the device is charging
         Constraints constraints = new Constraints.Builder()
                 .setRequiredNetworkType(NetworkType.NOT_REQUIRED)
+                .setRequiresCharging(true)
+                .setRequiresBatteryNotLow(true)
                 .build();
 
         PeriodicWorkRequest keyRotationWork = new PeriodicWorkRequest.Builder(KeyRotationWorker.class, 1, TimeUnit.DAYS)
@@ -41,8 +72,8 @@ public class KeyRotationManager {
                 .build();
 
         WorkManager.getInstance(context).enqueueUniquePeriodicWork(
-                "keyRotationWork",
-                ExistingPeriodicWorkPolicy.CANCEL_AND_REENQUEUE,
+                WORK_NAME,
+                ExistingPeriodicWorkPolicy.UPDATE,
                 keyRotationWork
         );
     }
@@ -58,50 +89,106 @@ public class KeyRotationManager {
         return System.currentTimeMillis() - lastRotationTime >= ROTATION_INTERVAL;
     }
 
-    public void rotateKeys(PasswordViewModel passwordViewModel) {
+    /**
+     * Switches new writes to a fresh key version. No rows are touched here: existing entries
+     * stay readable with their own version and are moved over by {@link #sweepStaleEntries}
+     * or when they are next decrypted.
+     */
+    public void rotateKeys() {
         try {
-            List<PasswordEntry> allPasswords = passwordViewModel.getAllPasswordsSync();
-            List<String> decryptedPasswords = new ArrayList<>();
-
-            // Step 1: Decrypt all passwords with the old key
-            for (PasswordEntry entry : allPasswords) {
-                String decryptedPassword = EncryptionUtil.decrypt(entry.getEncryptedPassword());
-                decryptedPasswords.add(decryptedPassword);
-            }
-
-            // Step 2: Generate a new key
-            EncryptionUtil.generateNewKey();
+            int version = EncryptionUtil.rotateKey();
+            SecretCache.clear();
+            updateLastRotationTime();
+            Log.i(TAG, "Key rotation completed, now on key version " + version);
+        } catch (Exception e) {
+            Log.e(TAG, "Key rotation failed", e);
+            throw new RuntimeException("Key rotation failed", e);
+        }
+    }
 
-            // Step 3: Re-encrypt all passwords with the new key
-            for (int i = 0; i < allPasswords.size(); i++) {
-                PasswordEntry entry = allPasswords.get(i);
-                String decryptedPassword = decryptedPasswords.get(i);
+    public int sweepStaleEntries(PasswordRepository repository) throws Exception {
+        return sweepStaleEntries(repository, (lastId, reencrypted) -> true);
+    }
 
-                String newEncryptedPassword = EncryptionUtil.encrypt(decryptedPassword);
-                entry.setEncryptedPassword(newEncryptedPassword);
-                passwordViewModel.update(entry);
+    /**
+     * Re-encrypts entries still sealed with an older key version, one chunk at a time,
+     * then deletes every old key version that no row references any more.
+     * Each chunk is swapped in with a compare-and-set, so edits made meanwhile are kept,
+     * and the last id is checkpointed so an interrupted sweep resumes where it stopped.
+     * An entry that fails authentication is logged and left as it is, and keeps its key version.
+     * @return The number of entries re-encrypted, or -1 if the listener stopped the sweep.
+     */
+    public int sweepStaleEntries(PasswordRepository repository, SweepListener listener) throws Exception {
+        int current = EncryptionUtil.getCurrentKeyVersion();
+        int afterId = getSweepCheckpoint(current);
+        int upgraded = 0;
+        List<PasswordEntry> chunk;
+        while (!(chunk = repository.getEntriesNotWithKeyVersion(current, afterId, SWEEP_CHUNK_SIZE).get()).isEmpty()) {
+            List<PasswordEntry> readable = new ArrayList<>(chunk.size());
+            List<byte[]> reencrypted = reencrypt(chunk, readable);
+            upgraded += repository.replaceEncryptedPasswords(readable, reencrypted).get();
+            afterId = chunk.get(chunk.size() - 1).getId();
+            saveSweepCheckpoint(current, afterId);
+            if (!listener.onChunkCommitted(afterId, upgraded)) {
+                Log.i(TAG, "Sweep paused after id " + afterId);
+                return -1;
             }
+        }
+        saveSweepCheckpoint(current, 0);
 
-            // Step 4: Securely clear decrypted passwords from memory
-            for (String decryptedPassword : decryptedPasswords) {
-                EncryptionUtil.secureDelete(decryptedPassword.getBytes());
+        if (System.currentTimeMillis() - getLastRotationTime() < RETIREMENT_GRACE_MS) {
+            return upgraded; // The next sweep retires them
+        }
+        for (int version : EncryptionUtil.getRetirableKeyVersions()) {
+            if (repository.retireKeyVersionIfUnused(version).get()) {
+                Log.i(TAG, "Retired key version " + version);
             }
+        }
+        return upgraded;
+    }
 
-            //Step 5: Securely clear all passwords from memory
-            for (PasswordEntry entry : allPasswords) {
-                EncryptionUtil.secureDelete(entry.getEncryptedPassword().getBytes());
+    /**
+     * Re-encrypts a chunk in one pass. If any entry fails authentication, the chunk is redone one
+     * entry at a time, so that entry is skipped rather than failing every sweep from here on.
+     * @param readable Receives the entries that were re-encrypted, in the order of the result.
+     */
+    private static List<byte[]> reencrypt(List<PasswordEntry> chunk, List<PasswordEntry> readable) throws Exception {
+        List<byte[]> ciphertexts = new ArrayList<>(chunk.size());
+        for (PasswordEntry entry : chunk) {
+            ciphertexts.add(entry.getEncryptedPassword());
+        }
+        try {
+            List<byte[]> reencrypted = EncryptionUtil.reencryptAll(ciphertexts);
+            readable.addAll(chunk);
+            return reencrypted;
+        } catch (SecurityException e) {
+            List<byte[]> reencrypted = new ArrayList<>(chunk.size());
+            for (PasswordEntry entry : chunk) {
+                try {
+                    reencrypted.add(EncryptionUtil.reencryptAll(Collections.singletonList(entry.getEncryptedPassword())).get(0));
+                    readable.add(entry);
+                } catch (SecurityException entryFailure) {
+                    Log.w(TAG, "Skipping entry " + entry.getId() + ": it cannot be decrypted", entryFailure);
+                }
             }
+            return reencrypted;
+        }
+    }
 
-            decryptedPasswords.clear();
-            allPasswords.clear();
-
-
-            updateLastRotationTime();
-            Log.i(TAG, "Key rotation completed successfully");
-        } catch (Exception e) {
-            Log.e(TAG, "Key rotation failed", e);
-            throw new RuntimeException("Key rotation failed", e);
+    private int getSweepCheckpoint(int keyVersion) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (prefs.getInt(SWEEP_CHECKPOINT_VERSION, -1) != keyVersion) {
+            return 0; // A rotation since the last sweep makes every earlier row stale again
         }
+        return prefs.getInt(SWEEP_CHECKPOINT_ID, 0);
+    }
+
+    private void saveSweepCheckpoint(int keyVersion, int lastId) {
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(SWEEP_CHECKPOINT_VERSION, keyVersion)
+                .putInt(SWEEP_CHECKPOINT_ID, lastId)
+                .commit();
     }
 
     private long getLastRotationTime() {
@@ -126,13 +213,25 @@ public class KeyRotationManager {
         public Result doWork() {
             Log.d(TAG, "doWork in key rotation");
             KeyRotationManager manager = new KeyRotationManager(getApplicationContext());
-            PasswordViewModel viewModel = new PasswordViewModel((Application) getApplicationContext());
+            // A ViewModel outside a ViewModelStore is never cleared, so the worker uses the repository directly
+            PasswordRepository repository = new PasswordRepository((Application) getApplicationContext());
             try {
                 if (manager.isRotationNeeded()) {
                     Log.wtf(TAG, "Key rotation needed");
-                    manager.rotateKeys(viewModel);
-                    return Result.success();
+                    manager.rotateKeys();
+                }
+                int upgraded = manager.sweepStaleEntries(repository, (lastId, reencrypted) -> {
+                    setProgressAsync(new Data.Builder()
+                            .putInt(PROGRESS_LAST_ID, lastId)
+                            .putInt(PROGRESS_REENCRYPTED, reencrypted)
+                            .build());
+                    return !isStopped();
+                });
+                if (upgraded < 0) {
+                    // Stopped by WorkManager, e.g. the charger was unplugged; resume from the checkpoint
+                    return Result.retry();
                 }
+                Log.d(TAG, "Re-encrypted " + upgraded + " entries");
             } catch (Exception e) {
                 Log.e(TAG, "Key rotation failed", e);
                 return Result.retry();
@@ -1,6 +1,7 @@
 package com.example.passwordmanagersql;
 
 import android.app.Activity;
+import android.content.ClipData;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.net.Uri;
@@ -12,7 +13,10 @@ import android.util.Log;
 import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.RadioButton;
+import android.widget.RadioGroup;
 import android.widget.SearchView;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -32,25 +36,37 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.android.material.textfield.TextInputLayout;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
+    private static final int BACKUP_BATCH_SIZE = 100; // Ciphertexts held in memory at once while writing a backup
+
     private PasswordAdapter adapter;
     private PasswordViewModel passwordViewModel;
     private Executor executor;
     private BiometricPrompt biometricPrompt;
     private BiometricPrompt.PromptInfo showPromptInfo;
     private BiometricPrompt.PromptInfo editPromptInfo;
-    private PasswordEntry passwordEntryToShow;
+    private PasswordSummary passwordEntryToShow;
     private ProgressBar progressBar;
     private TextView progressText;
     private View progressOverlay;
@@ -80,8 +96,20 @@ public class MainActivity extends AppCompatActivity {
             new ActivityResultContracts.StartActivityForResult(),
             result -> {
                 if (result.getResultCode() == Activity.RESULT_OK && result.getData() != null) {
-                    Uri uri = result.getData().getData();
-                    handleRestoreFile(uri);
+                    List<Uri> uris = new ArrayList<>();
+                    ClipData clipData = result.getData().getClipData();
+                    if (clipData != null) {
+                        for (int i = 0; i < clipData.getItemCount(); i++) {
+                            uris.add(clipData.getItemAt(i).getUri());
+                        }
+                    } else if (result.getData().getData() != null) {
+                        uris.add(result.getData().getData());
+                    }
+                    if (uris.size() == 1 && isCsv(uris.get(0))) {
+                        handleImportFile(uris.get(0));
+                    } else if (!uris.isEmpty()) {
+                        handleRestoreFile(uris);
+                    }
                 }
 
             });
@@ -156,14 +184,14 @@ public class MainActivity extends AppCompatActivity {
         });
 
         adapter.setOnLongItemClickListener(position -> {
-            PasswordEntry passwordEntry = adapter.getPasswordAtPosition(position);
+            PasswordSummary passwordEntry = adapter.getPasswordAtPosition(position);
             showDeleteConfirmationDialog(passwordEntry);
         });
     }
 
     private void setupViewModel() {
         passwordViewModel = new ViewModelProvider(this).get(PasswordViewModel.class);
-        passwordViewModel.getAllPasswords().observe(this, adapter::submitList);
+        passwordViewModel.getListing().observe(this, pagingData -> adapter.submitData(getLifecycle(), pagingData));
     }
 
     private void setupBiometricAuthentication() {
@@ -225,11 +253,17 @@ public class MainActivity extends AppCompatActivity {
     private void performBackup(String passphrase) {
         showProgress("Encrypting your backup");
 
-        backgroundExecutor.execute(() -> {
-            List<PasswordEntry> passwordEntries;
-            try {
-                passwordEntries = passwordViewModel.getAllPasswordsSync();
-            } catch (Exception e) {
+        // Daily backups only export what changed since the last one, until the chain is long enough to restart
+        // A different passphrase starts a new chain, since a restore opens every link with one passphrase
+        BackupChain previous = BackupChain.load(this);
+        CompletableFuture<Boolean> extend = CompletableFuture.supplyAsync(
+                () -> previous != null && previous.canExtend(passphrase), backgroundExecutor);
+        CompletableFuture<VaultChanges> content = extend.thenCompose(incremental -> incremental
+                ? passwordViewModel.getChangesSince(previous.through)
+                : passwordViewModel.getFullBackup());
+
+        content.whenCompleteAsync((changes, error) -> {
+            if (error != null) {
                 Log.e("Error occurred", "in backup");
                 runOnUiThread(() -> {
                     hideProgress();
@@ -237,27 +271,11 @@ public class MainActivity extends AppCompatActivity {
                 });
                 return;
             }
-
-            StringBuilder encryptedDataBuilder = new StringBuilder();
-            try {
-                for (PasswordEntry entry : passwordEntries) {
-                    String entryData = entry.getWebsite() + "," + entry.getUsername() + "," + EncryptionUtil.decrypt(entry.getEncryptedPassword());
-                    String encryptedData = EncryptionUtil.encryptWithPassphrase(entryData, passphrase);
-                    encryptedDataBuilder.append(encryptedData).append("\n");
-                }
-            } catch (Exception e) {
-                Log.e("Error occurred", "in backup");
-                runOnUiThread(() -> {
-                    hideProgress();
-                    Toast.makeText(MainActivity.this, "Backup failed", Toast.LENGTH_SHORT).show();
-                });
-                return;
-            }
-            String encryptedData = encryptedDataBuilder.toString();
+            BackupChain chain = extend.join() ? previous.next(changes.through) : BackupChain.start(changes.through);
 
             ContentValues values = new ContentValues();
-            values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, "password_backup.txt");
-            values.put(MediaStore.Files.FileColumns.MIME_TYPE, "text/plain");
+            values.put(MediaStore.Files.FileColumns.DISPLAY_NAME, chain.getFileName());
+            values.put(MediaStore.Files.FileColumns.MIME_TYPE, "application/octet-stream");
             values.put(MediaStore.Files.FileColumns.RELATIVE_PATH, Environment.DIRECTORY_DOCUMENTS + "/PasswordManagerBackups/");
 
             Uri contentUri = getContentResolver().insert(MediaStore.Files.getContentUri("external"), values);
@@ -265,14 +283,37 @@ public class MainActivity extends AppCompatActivity {
             if (contentUri != null) {
                 try (OutputStream outputStream = getContentResolver().openOutputStream(contentUri)) {
                     assert outputStream != null;
-                    outputStream.write(encryptedData.getBytes());
-                    outputStream.flush();
+                    // The container derives the backup key once, then streams entries through compression and chunked AES-GCM.
+                    try (BackupContainer.Writer writer = new BackupContainer.Writer(new BufferedOutputStream(outputStream), passphrase, chain)) {
+                        // A batch of ciphertexts at a time; an entry deleted meanwhile is missing here and in the next increment's deletions
+                        List<Integer> ids = changes.changed;
+                        for (int i = 0; i < ids.size(); i += BACKUP_BATCH_SIZE) {
+                            List<Integer> batch = ids.subList(i, Math.min(ids.size(), i + BACKUP_BATCH_SIZE));
+                            for (PasswordEntry entry : passwordViewModel.getPasswordsByIds(batch).get()) {
+                                try (SecretBuffer password = EncryptionUtil.decryptToBuffer(entry.getEncryptedPassword())) {
+                                    writer.write(entry.getId(), entry.getUpdatedAt(), entry.getWebsite(), entry.getUsername(), password);
+                                }
+                            }
+                        }
+                        for (int deletedId : changes.deleted) {
+                            writer.writeDeletion(deletedId);
+                        }
+                        writer.finish();
+                    }
+                    chain.save(this, passphrase);
+                    if (chain.isFull()) {
+                        passwordViewModel.pruneDeletions(changes.through);
+                    }
+                    String message = chain.isFull()
+                            ? "Backup successful"
+                            : "Incremental backup saved: " + (changes.changed.size() + changes.deleted.size()) + " changes";
                     runOnUiThread(() -> {
                         hideProgress();
-                        Toast.makeText(MainActivity.this, "Backup successful", Toast.LENGTH_SHORT).show();
+                        Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
                     });
                 } catch (Exception e) {
                     Log.e("Error occurred", "in backup");
+                    getContentResolver().delete(contentUri, null, null);
                     runOnUiThread(() -> {
                         hideProgress();
                         Toast.makeText(MainActivity.this, "Backup failed", Toast.LENGTH_SHORT).show();
@@ -284,62 +325,202 @@ public class MainActivity extends AppCompatActivity {
                     Toast.makeText(MainActivity.this, "Failed to create backup file", Toast.LENGTH_SHORT).show();
                 });
             }
-        });
+        }, backgroundExecutor);
     }
 
     private void performRestore() {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
         intent.addCategory(Intent.CATEGORY_OPENABLE);
-        intent.setType("text/plain");
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true); // A full backup and its increments
         restoreFileLauncher.launch(intent);
     }
 
-    private void restoreFromBackup(Uri uri, String passphrase) {
+    private void restoreFromBackup(List<Uri> uris, String passphrase, ConflictPolicy policy) {
         showProgress("Decrypting your backup");
 
         backgroundExecutor.execute(() -> {
-            try (InputStream inputStream = getContentResolver().openInputStream(uri);
-                 BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+            try {
+                // Staged until the whole backup has been read, then merged, so restoring the same backup again adds nothing
+                BatchInserter inserter = new BatchInserter(passwordViewModel, policy);
+                RestorePipeline.Result result = uris.size() == 1 ? restoreFromFile(uris.get(0), passphrase, inserter)
+                        : restoreFromChain(uris, passphrase, inserter);
+                updateProgress("Saving to the vault");
+                int written = inserter.commit();
+                Log.i("Restore", PasswordDatabase.getDatabase(this).describeExecutorMetrics());
 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.trim().isEmpty()) {
-                        continue;
-                    }
+                runOnUiThread(() -> {
+                    hideProgress();
+                    Toast.makeText(this, summarize("Restore", written, result.failed, inserter.getKept()), Toast.LENGTH_SHORT).show();
+                });
+            } catch (BackupChain.BrokenChainException e) {
+                runOnUiThread(() -> {
+                    hideProgress();
+                    Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+                });
+            } catch (Exception e) {
+                Log.e("Error occurred", "in restore");
+                runOnUiThread(() -> {
+                    hideProgress();
+                    Toast.makeText(this, "Error reading or decrypting backup, nothing was restored", Toast.LENGTH_SHORT).show();
+                });
+            }
+        });
+    }
+
+    private RestorePipeline.Result restoreFromFile(Uri uri, String passphrase, BatchInserter inserter) throws Exception {
+        try (InputStream inputStream = new BufferedInputStream(getContentResolver().openInputStream(uri))) {
+            if (!BackupContainer.isContainer(inputStream)) {
+                return restoreFromLegacyLines(inputStream, passphrase, inserter);
+            }
+        }
+        return restoreFromChain(Collections.singletonList(uri), passphrase, inserter);
+    }
 
-                    try {
-                        String decryptedEntry = EncryptionUtil.decryptWithPassphrase(line, passphrase);
-                        String[] parts = decryptedEntry.split(",");
-                        if (parts.length == 3) {
-                            String website = parts[0];
-                            String username = parts[1];
-                            String decryptedPassword = parts[2];
-
-                            String encryptedPassword = EncryptionUtil.encrypt(decryptedPassword);
-                            PasswordEntry newEntry = new PasswordEntry(website, username, encryptedPassword);
-                            passwordViewModel.insert(newEntry);
-                        } else {
-                            Log.e("Restore", "Parsing error: Invalid format.");
+    /**
+     * Replays a full backup and its increments newest first. The first link to mention an entry
+     * decides it, so older versions and deleted entries are skipped instead of written and undone;
+     * only the ids seen so far are held in memory.
+     */
+    private RestorePipeline.Result restoreFromChain(List<Uri> uris, String passphrase, BatchInserter inserter) throws Exception {
+        List<BackupChain> links = new ArrayList<>(uris.size());
+        for (Uri uri : uris) {
+            try (InputStream inputStream = new BufferedInputStream(getContentResolver().openInputStream(uri))) {
+                links.add(BackupContainer.isContainer(inputStream) ? BackupContainer.readChain(inputStream) : null);
+            }
+        }
+        int[] order = BackupChain.replayOrder(links);
+
+        Set<Integer> decided = new HashSet<>();
+        RestorePipeline.Result result = null;
+        int failed = 0;
+        try {
+            for (int index : order) {
+                try (InputStream inputStream = new BufferedInputStream(getContentResolver().openInputStream(uris.get(index)))) {
+                    result = restoreFromContainer(inputStream, passphrase, inserter, decided);
+                    failed += result.failed;
+                }
+            }
+        } catch (Exception e) {
+            // A link that fails to open drops the earlier links too; the chain restores whole or not at all
+            inserter.discard();
+            throw e;
+        }
+        // The inserter counts across links, so the last result holds the total
+        return new RestorePipeline.Result(result.restored, failed);
+    }
+
+    private RestorePipeline.Result restoreFromContainer(InputStream inputStream, String passphrase, BatchInserter inserter,
+                                                        Set<Integer> decided) throws Exception {
+        try (BackupContainer.Reader reader = new BackupContainer.Reader(inputStream, passphrase)) {
+            return new RestorePipeline<BackupContainer.SealedRecord>().run(
+                    () -> {
+                        BackupContainer.SealedRecord record;
+                        while ((record = reader.readSealed()) != null) {
+                            boolean first = decided.add(record.getEntryId());
+                            if (first && !record.isDeletion()) {
+                                return record;
+                            }
+                            record.discard();
                         }
-                    } catch (Exception e) {
-                        Log.e("Error occurred", "in restore");
+                        return null;
+                    },
+                    reader::openEntry,
+                    inserter);
+        }
+    }
+
+    private RestorePipeline.Result restoreFromLegacyLines(InputStream inputStream, String passphrase, BatchInserter inserter) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        int workers = RestorePipeline.workersForMemory(EncryptionUtil.argon2Memory * 1024L);
+        return new RestorePipeline<String>(workers).run(
+                () -> {
+                    String line;
+                    do {
+                        line = reader.readLine();
+                    } while (line != null && line.trim().isEmpty());
+                    return line;
+                },
+                line -> {
+                    // Each legacy line carries its own salt, so the Argon2 cost is paid per line here.
+                    BackupRecord record = BackupRecord.fromLegacyLine(EncryptionUtil.decryptWithPassphrase(line, passphrase));
+                    if (record == null) {
+                        throw new IllegalArgumentException("Parsing error: Invalid format.");
                     }
-                }
+                    return new PasswordEntry(record.website, record.username, EncryptionUtil.encrypt(record.password));
+                },
+                inserter);
+    }
+
+    /**
+     * @return Whether a picked file is a CSV export from another password manager rather than a backup.
+     */
+    private boolean isCsv(Uri uri) {
+        String type = getContentResolver().getType(uri);
+        if ("text/csv".equals(type) || "text/comma-separated-values".equals(type)) {
+            return true;
+        }
+        String path = uri.getLastPathSegment();
+        return path != null && path.toLowerCase(Locale.ROOT).endsWith(".csv");
+    }
 
+    private void importFromCsv(Uri uri, ConflictPolicy policy) {
+        showProgress("Importing passwords");
+
+        backgroundExecutor.execute(() -> {
+            ThroughputMeter meter = new ThroughputMeter("Imported", this::updateProgress);
+            try (CsvReader csv = new CsvReader(new InputStreamReader(getContentResolver().openInputStream(uri), StandardCharsets.UTF_8))) {
+                CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv.readRecord());
+                BatchInserter inserter = new BatchInserter(passwordViewModel, policy);
+                inserter.setListener(meter);
+                // Rows are parsed one at a time and encrypted on the worker pool, so memory stays flat however long the export is
+                RestorePipeline.Result result = new RestorePipeline<char[][]>().run(
+                        () -> {
+                            char[][] record;
+                            while ((record = csv.readRecord()) != null && !mapping.isLogin(record)) {
+                                CsvReader.wipe(record); // A note or card, which may hold secrets too
+                            }
+                            return record;
+                        },
+                        mapping::toEntry,
+                        inserter);
+                updateProgress("Saving to the vault");
+                int written = inserter.commit();
+                Log.i("Import", meter + "; " + PasswordDatabase.getDatabase(this).describeExecutorMetrics());
+
+                runOnUiThread(() -> {
+                    hideProgress();
+                    Toast.makeText(this, summarize("Import", written, result.failed, inserter.getKept()), Toast.LENGTH_SHORT).show();
+                });
+            } catch (IOException e) {
+                // The file is malformed or not a known export; the message says where
+                Log.e("Error occurred", "in import");
                 runOnUiThread(() -> {
                     hideProgress();
-                    Toast.makeText(this, "Restore complete", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(this, (e.getMessage() != null ? e.getMessage() : "Error reading the file") + ", nothing was imported",
+                            Toast.LENGTH_LONG).show();
                 });
             } catch (Exception e) {
-                Log.e("Error occurred", "in restore");
+                Log.e("Error occurred", "in import");
                 runOnUiThread(() -> {
                     hideProgress();
-                    Toast.makeText(this, "Error reading or decrypting backup", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(this, "Error importing passwords, nothing was imported", Toast.LENGTH_SHORT).show();
                 });
             }
         });
     }
 
+    private static String summarize(String operation, int written, int failed, int kept) {
+        String message = operation + " complete: " + written + " entries";
+        if (kept > 0) {
+            message += ", " + kept + " already in the vault";
+        }
+        if (failed > 0) {
+            message += ", " + failed + " skipped";
+        }
+        return message;
+    }
+
     private void showProgress(String message) {
         runOnUiThread(() -> {
             progressOverlay.setVisibility(View.VISIBLE);
@@ -351,6 +532,10 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    private void updateProgress(String message) {
+        runOnUiThread(() -> progressText.setText(message));
+    }
+
     private void hideProgress() {
         runOnUiThread(() -> {
             progressOverlay.setVisibility(View.GONE);
@@ -361,6 +546,13 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    // Runs after the edit screen has started, so a password revealed just before editing is still cached there
+    @Override
+    protected void onStop() {
+        super.onStop();
+        SecretCache.clear();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -376,7 +568,7 @@ public class MainActivity extends AppCompatActivity {
                 passphrase.matches(".*[^A-Za-z0-9].*");
     }
 
-    private void handleRestoreFile(Uri uri) {
+    private void handleRestoreFile(List<Uri> uris) {
         AlertDialog.Builder builder = new AlertDialog.Builder(this);
         builder.setTitle("Enter Passphrase");
 
@@ -387,63 +579,115 @@ public class MainActivity extends AppCompatActivity {
         input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_PASSWORD);
         textInputLayout.addView(input);
 
-        FrameLayout.LayoutParams params = new FrameLayout.LayoutParams(
-                FrameLayout.LayoutParams.MATCH_PARENT,
-                FrameLayout.LayoutParams.WRAP_CONTENT
+        LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                LinearLayout.LayoutParams.MATCH_PARENT,
+                LinearLayout.LayoutParams.WRAP_CONTENT
         );
         textInputLayout.setLayoutParams(params);
 
-        builder.setView(textInputLayout);
+        LinearLayout content = new LinearLayout(this);
+        content.setOrientation(LinearLayout.VERTICAL);
+        content.addView(textInputLayout);
+        RadioGroup conflictGroup = addConflictPolicyChoice(content);
+        builder.setView(content);
 
         builder.setPositiveButton("OK", (dialog, which) -> {
             String passphrase = Objects.requireNonNull(input.getText()).toString();
-            restoreFromBackup(uri, passphrase);
+            restoreFromBackup(uris, passphrase, checkedConflictPolicy(conflictGroup));
         });
 
         builder.setNegativeButton("Cancel", (dialog, which) -> dialog.cancel());
         builder.show();
     }
 
+    private void handleImportFile(Uri uri) {
+        LinearLayout content = new LinearLayout(this);
+        content.setOrientation(LinearLayout.VERTICAL);
+        RadioGroup conflictGroup = addConflictPolicyChoice(content);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Import Passwords")
+                .setView(content)
+                .setPositiveButton("Import", (dialog, which) -> importFromCsv(uri, checkedConflictPolicy(conflictGroup)))
+                .setNegativeButton("Cancel", (dialog, which) -> dialog.cancel())
+                .show();
+    }
+
+    /**
+     * Adds a choice of what to do with entries whose website and username are already in the
+     * vault, preset to the last choice.
+     */
+    private RadioGroup addConflictPolicyChoice(LinearLayout content) {
+        TextView label = new TextView(this);
+        label.setText("If an entry already exists");
+        content.addView(label);
+
+        RadioGroup group = new RadioGroup(this);
+        ConflictPolicy lastPolicy = ConflictPolicy.load(this);
+        for (ConflictPolicy policy : ConflictPolicy.values()) {
+            RadioButton button = new RadioButton(this);
+            button.setId(View.generateViewId());
+            button.setText(policy.label);
+            button.setTag(policy);
+            group.addView(button);
+            button.setChecked(policy == lastPolicy);
+        }
+        content.addView(group);
+        return group;
+    }
+
+    /**
+     * @return The policy checked in a group from {@link #addConflictPolicyChoice}, remembered for next time.
+     */
+    private ConflictPolicy checkedConflictPolicy(RadioGroup group) {
+        View checked = group.findViewById(group.getCheckedRadioButtonId());
+        ConflictPolicy policy = checked != null ? (ConflictPolicy) checked.getTag() : ConflictPolicy.load(this);
+        policy.save(this);
+        return policy;
+    }
+
 
     private void showPassword() {
         if (passwordEntryToShow != null) {
-            try {
-                String decryptedPassword = EncryptionUtil.decrypt(passwordEntryToShow.getEncryptedPassword());
-                showPasswordDialog(decryptedPassword);
-                passwordEntryToShow = null;
-            } catch (Exception e) {
-                Log.e("Error occurred", "in showing password");
-                Toast.makeText(MainActivity.this, "Error decrypting password", Toast.LENGTH_SHORT).show();
-            }
+            int id = passwordEntryToShow.getId();
+            passwordEntryToShow = null;
+            // Listed entries carry no ciphertext; load it only now that it is needed
+            passwordViewModel.getCiphertextById(id).thenAcceptAsync(encryptedPassword -> {
+                try {
+                    char[] decryptedPassword = SecretCache.decrypt(id, encryptedPassword);
+                    if (EncryptionUtil.needsReencryption(encryptedPassword)) {
+                        passwordViewModel.reencryptIfStale(id, encryptedPassword, new String(decryptedPassword));
+                    }
+                    passwordViewModel.recordUse(id);
+                    runOnUiThread(() -> showPasswordDialog(decryptedPassword));
+                } catch (Exception e) {
+                    Log.e("Error occurred", "in showing password");
+                    runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error decrypting password", Toast.LENGTH_SHORT).show());
+                }
+            }, backgroundExecutor).exceptionally(e -> {
+                Log.e("Error occurred", "in loading password");
+                runOnUiThread(() -> Toast.makeText(MainActivity.this, "Error loading password", Toast.LENGTH_SHORT).show());
+                return null;
+            });
         } else {
             Toast.makeText(MainActivity.this, "No password entry selected", Toast.LENGTH_SHORT).show();
         }
     }
 
     private void filterPasswordEntries(String query) {
-        List<PasswordEntry> filteredList = new ArrayList<>();
-        try {
-            List<PasswordEntry> allPasswordEntries = passwordViewModel.getAllPasswordsSync();
-            for (PasswordEntry entry : allPasswordEntries) {
-                if (entry.getWebsite().toLowerCase().contains(query.toLowerCase())) {
-                    filteredList.add(entry);
-                }
-            }
-        } catch (Exception e) {
-            Log.e("Error occurred", "in filtering passwords");
-        }
-        adapter.submitList(filteredList);
+        passwordViewModel.setSearchQuery(query);
     }
 
-    private void showPasswordDialog(String password) {
+    private void showPasswordDialog(char[] password) {
         new AlertDialog.Builder(this)
                 .setTitle("Password")
-                .setMessage(password)
+                .setMessage(new String(password))
                 .setPositiveButton("OK", null)
                 .show();
+        Arrays.fill(password, '\0');
     }
 
-    private void showDeleteConfirmationDialog(PasswordEntry passwordEntry) {
+    private void showDeleteConfirmationDialog(PasswordSummary passwordEntry) {
         new AlertDialog.Builder(this)
                 .setTitle("Delete Password")
                 .setMessage("Are you sure you want to delete this password?")
@@ -452,9 +696,9 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
-    private void deletePassword(PasswordEntry passwordEntry) {
-        passwordViewModel.delete(passwordEntry);
-        Toast.makeText(this, "Password deleted", Toast.LENGTH_SHORT).show();
+    private void deletePassword(PasswordSummary passwordEntry) {
+        passwordViewModel.deleteById(passwordEntry.getId()).whenCompleteAsync((result, error) ->
+                Toast.makeText(this, error == null ? "Password deleted" : "Error deleting password", Toast.LENGTH_SHORT).show(), executor);
     }
 
     private void authenticateUserForShow() {
@@ -499,13 +743,22 @@ public class MainActivity extends AppCompatActivity {
 
     private void launchEditPasswordActivity() {
         if (passwordEntryToShow != null) {
-            Intent intent = new Intent(MainActivity.this, AddEditPasswordActivity.class);
-            intent.putExtra(AddEditPasswordActivity.EXTRA_ID, passwordEntryToShow.getId());
-            intent.putExtra(AddEditPasswordActivity.EXTRA_WEBSITE, passwordEntryToShow.getWebsite());
-            intent.putExtra(AddEditPasswordActivity.EXTRA_USERNAME, passwordEntryToShow.getUsername());
-            intent.putExtra(AddEditPasswordActivity.EXTRA_PASSWORD, passwordEntryToShow.getEncryptedPassword());
-            editPasswordLauncher.launch(intent);
+            PasswordSummary passwordEntry = passwordEntryToShow;
             passwordEntryToShow = null;
+            passwordViewModel.getCiphertextById(passwordEntry.getId()).whenCompleteAsync((encryptedPassword, error) -> {
+                if (error != null || encryptedPassword == null) {
+                    Log.e("Error occurred", "in loading password for edit");
+                    Toast.makeText(MainActivity.this, "Error loading password", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                passwordViewModel.recordUse(passwordEntry.getId());
+                Intent intent = new Intent(MainActivity.this, AddEditPasswordActivity.class);
+                intent.putExtra(AddEditPasswordActivity.EXTRA_ID, passwordEntry.getId());
+                intent.putExtra(AddEditPasswordActivity.EXTRA_WEBSITE, passwordEntry.getWebsite());
+                intent.putExtra(AddEditPasswordActivity.EXTRA_USERNAME, passwordEntry.getUsername());
+                intent.putExtra(AddEditPasswordActivity.EXTRA_ENCRYPTED_PASSWORD, encryptedPassword);
+                editPasswordLauncher.launch(intent);
+            }, executor);
         } else {
             Toast.makeText(this, "No password entry selected", Toast.LENGTH_SHORT).show();
         }
@@ -518,10 +771,10 @@ public class MainActivity extends AppCompatActivity {
             String password = data.getStringExtra(AddEditPasswordActivity.EXTRA_PASSWORD);
 
             try {
-                String encryptedPassword = EncryptionUtil.encrypt(password);
+                byte[] encryptedPassword = EncryptionUtil.encrypt(password);
                 PasswordEntry passwordEntry = new PasswordEntry(website, username, encryptedPassword);
-                passwordViewModel.insert(passwordEntry);
-                Toast.makeText(this, "Password saved", Toast.LENGTH_SHORT).show();
+                passwordViewModel.insert(passwordEntry).whenCompleteAsync((result, error) ->
+                        Toast.makeText(this, error == null ? "Password saved" : "Error saving password", Toast.LENGTH_SHORT).show(), executor);
             } catch (Exception e) {
                 Log.e("Error occurred", "in adding password");
                 Toast.makeText(this, "Error saving password", Toast.LENGTH_SHORT).show();
@@ -542,11 +795,11 @@ public class MainActivity extends AppCompatActivity {
             String password = data.getStringExtra(AddEditPasswordActivity.EXTRA_PASSWORD);
 
             try {
-                String encryptedPassword = EncryptionUtil.encrypt(password);
+                byte[] encryptedPassword = EncryptionUtil.encrypt(password);
                 PasswordEntry passwordEntry = new PasswordEntry(website, username, encryptedPassword);
                 passwordEntry.setId(id);
-                passwordViewModel.update(passwordEntry);
-                Toast.makeText(this, "Password updated", Toast.LENGTH_SHORT).show();
+                passwordViewModel.update(passwordEntry).whenCompleteAsync((result, error) ->
+                        Toast.makeText(this, error == null ? "Password updated" : "Error updating password", Toast.LENGTH_SHORT).show(), executor);
             } catch (Exception e) {
                 Log.e("Error occurred", "in handling passwords");
                 Toast.makeText(this, "Error updating password", Toast.LENGTH_SHORT).show();
@@ -1,32 +1,55 @@
 package com.example.passwordmanagersql;
 
-import android.annotation.SuppressLint;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.paging.PagingDataAdapter;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
-import java.util.ArrayList;
-import java.util.List;
-
-public class PasswordAdapter extends RecyclerView.Adapter<PasswordAdapter.PasswordHolder> {
-    private List<PasswordEntry> passwords = new ArrayList<>();
+import java.util.Objects;
+
+/**
+ * Lists the vault page by page. Rows that are not loaded yet are bound as empty placeholders,
+ * and new pages are diffed against the current ones on a background thread, so an insert
+ * or edit only rebinds the rows that changed.
+ */
+public class PasswordAdapter extends PagingDataAdapter<PasswordSummary, PasswordAdapter.PasswordHolder> {
     private OnItemClickListener listener;
     private OnLongItemClickListener longClickListener;
     private OnEditItemClickListener editItemClickListener;
 
+    private static final DiffUtil.ItemCallback<PasswordSummary> DIFF_CALLBACK = new DiffUtil.ItemCallback<PasswordSummary>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull PasswordSummary oldItem, @NonNull PasswordSummary newItem) {
+            return oldItem.getId() == newItem.getId();
+        }
+
+        // Only what a row displays; click handlers always read the current item
+        @Override
+        public boolean areContentsTheSame(@NonNull PasswordSummary oldItem, @NonNull PasswordSummary newItem) {
+            return Objects.equals(oldItem.getWebsite(), newItem.getWebsite())
+                    && Objects.equals(oldItem.getUsername(), newItem.getUsername());
+        }
+    };
+
+    // PagingDataAdapter does not support stable ids; DIFF_CALLBACK keeps rows matched by id instead
+    public PasswordAdapter() {
+        super(DIFF_CALLBACK);
+    }
+
     public interface OnLongItemClickListener {
         void onLongItemClick(int position);
     }
 
     public interface OnEditItemClickListener {
-        void onEditItemClick(PasswordEntry passwordEntry);
+        void onEditItemClick(PasswordSummary passwordSummary);
     }
 
     public interface OnItemClickListener {
-        void onShowPasswordClick(PasswordEntry passwordEntry);
+        void onShowPasswordClick(PasswordSummary passwordSummary);
     }
 
     public void setOnLongItemClickListener(OnLongItemClickListener listener) {
@@ -51,37 +74,22 @@ public class PasswordAdapter extends RecyclerView.Adapter<PasswordAdapter.Passwo
 
     @Override
     public void onBindViewHolder(@NonNull PasswordHolder holder, int position) {
-        PasswordEntry currentPassword = passwords.get(position);
+        PasswordSummary currentPassword = getItem(position);
+        if (currentPassword == null) {
+            holder.textViewWebsite.setText(null);
+            holder.textViewUsername.setText(null);
+            return;
+        }
         holder.textViewWebsite.setText(currentPassword.getWebsite());
         holder.textViewUsername.setText(currentPassword.getUsername());
-        holder.buttonShowPassword.setOnClickListener(v -> {
-            if (listener != null && position != RecyclerView.NO_POSITION) {
-                listener.onShowPasswordClick(currentPassword);
-            }
-        });
-
-        holder.buttonEditPassword.setOnClickListener(v -> {
-            if (editItemClickListener != null && position != RecyclerView.NO_POSITION) {
-                editItemClickListener.onEditItemClick(currentPassword);
-            }
-        });
     }
 
-    @Override
-    public int getItemCount() {
-        return passwords.size();
-    }
-
-    @SuppressLint("NotifyDataSetChanged")
-    public void submitList(List<PasswordEntry> passwords) {
-        this.passwords = passwords;
-        notifyDataSetChanged();
-    }
-
-    // Add this new method to get a PasswordEntry at a specific position
-    public PasswordEntry getPasswordAtPosition(int position) {
-        if (position >= 0 && position < passwords.size()) {
-            return passwords.get(position);
+    /**
+     * @return The loaded entry at a position, or null for a placeholder. Does not trigger a page load.
+     */
+    public PasswordSummary getPasswordAtPosition(int position) {
+        if (position >= 0 && position < getItemCount()) {
+            return peek(position);
         }
         return null;
     }
@@ -99,12 +107,26 @@ public class PasswordAdapter extends RecyclerView.Adapter<PasswordAdapter.Passwo
             buttonShowPassword = itemView.findViewById(R.id.button_show_password);
             buttonEditPassword = itemView.findViewById(R.id.button_edit_password);
 
+            buttonShowPassword.setOnClickListener(v -> {
+                PasswordSummary passwordSummary = getPasswordAtPosition(getBindingAdapterPosition());
+                if (listener != null && passwordSummary != null) {
+                    listener.onShowPasswordClick(passwordSummary);
+                }
+            });
+
+            buttonEditPassword.setOnClickListener(v -> {
+                PasswordSummary passwordSummary = getPasswordAtPosition(getBindingAdapterPosition());
+                if (editItemClickListener != null && passwordSummary != null) {
+                    editItemClickListener.onEditItemClick(passwordSummary);
+                }
+            });
+
             itemView.setOnLongClickListener(v -> {
-                if (longClickListener != null && getBindingAdapterPosition() != RecyclerView.NO_POSITION) {
+                if (longClickListener != null && getPasswordAtPosition(getBindingAdapterPosition()) != null) {
                     longClickListener.onLongItemClick(getBindingAdapterPosition());
                 }
                 return true;
             });
         }
     }
-}
\ No newline at end of file
+}
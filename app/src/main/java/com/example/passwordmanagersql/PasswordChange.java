@@ -0,0 +1,20 @@
+package com.example.passwordmanagersql;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * The change log behind incremental backups: the last change to each entry, written by the
+ * triggers in {@link PasswordDatabase#createChangeLogTriggers}, so every write path is covered.
+ * A later change to the same entry replaces its row with a higher sequence, and a deletion
+ * leaves a row with {@link #deleted} set until a full backup no longer needs it.
+ */
+@Entity(tableName = "password_changes", indices = {@Index(value = "entryId", unique = true)})
+public class PasswordChange {
+    // AUTOINCREMENT, so a sequence is never reused even after rows are pruned
+    @PrimaryKey(autoGenerate = true)
+    public long sequence;
+    public int entryId;
+    public boolean deleted;
+}
@@ -1,31 +1,219 @@
 package com.example.passwordmanagersql;
 
-import androidx.lifecycle.LiveData;
+import androidx.paging.PagingSource;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 @Dao
 public interface PasswordDao {
     @Insert
-    void insert(PasswordEntry passwordEntry);
+    long insert(PasswordEntry passwordEntry);
+
+    // Room runs a list insert inside a single transaction, so a batch costs one commit.
+    // Rows whose match key is taken are skipped with id -1, for mergeAll to resolve.
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    List<Long> insertAll(List<PasswordEntry> passwordEntries);
+
+    @Query("SELECT IFNULL(MAX(copyNumber) + 1, 0) FROM password_table WHERE matchKey = :matchKey")
+    int getNextCopyNumber(String matchKey);
+
+    @Query("SELECT * FROM password_table WHERE matchKey = :matchKey AND copyNumber = 0")
+    PasswordEntry getByMatchKey(String matchKey);
+
+    @Query("SELECT COUNT(*) FROM password_table WHERE matchKey = :matchKey AND updatedAt = :updatedAt")
+    int countVersions(String matchKey, long updatedAt);
+
+    @Query("SELECT encryptedPassword FROM password_table WHERE matchKey = :matchKey")
+    List<byte[]> getCiphertextsByMatchKey(String matchKey);
+
+    /**
+     * Decrypts the password of every entry with this match key, so only keys a restore
+     * conflicts on pay for it.
+     * @return Whether one of them is the same password as {@code encryptedPassword}.
+     */
+    default boolean hasSamePassword(String matchKey, byte[] encryptedPassword) {
+        for (byte[] existing : getCiphertextsByMatchKey(matchKey)) {
+            if (EncryptionUtil.sameSecret(existing, encryptedPassword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Inserts an entry the user added, as a copy if the vault already has one with its match key.
+     */
+    @Transaction
+    default long insertAsCopy(PasswordEntry passwordEntry) {
+        passwordEntry.copyNumber = getNextCopyNumber(passwordEntry.matchKey);
+        return insert(passwordEntry);
+    }
+
+    /**
+     * Writes restored entries in one transaction. An entry whose match key is taken is
+     * resolved against the vault's entry for that key, which the copy triggers keep at copy 0.
+     * An entry with the same key and modification time as one in the vault is the same
+     * version, so restoring a backup twice changes nothing. An entry from a backup without
+     * modification times is the same version as one with its key and the same password, so
+     * under {@link ConflictPolicy#KEEP_BOTH} it is only copied if its password differs.
+     * @param writtenIds Receives the id of every row inserted or replaced.
+     * @return The number of entries left out in favour of the one in the vault.
+     */
+    @Transaction
+    default int mergeAll(List<PasswordEntry> passwordEntries, ConflictPolicy policy, Collection<Integer> writtenIds) {
+        List<Long> ids = insertAll(passwordEntries);
+        int kept = 0;
+        for (int i = 0; i < passwordEntries.size(); i++) {
+            if (ids.get(i) != -1) {
+                writtenIds.add(ids.get(i).intValue());
+                continue;
+            }
+            PasswordEntry entry = passwordEntries.get(i);
+            PasswordEntry existing = getByMatchKey(entry.matchKey);
+            if (policy == ConflictPolicy.KEEP_NEWEST && entry.updatedAt > existing.updatedAt) {
+                updateContent(existing.id, entry.website, entry.username, entry.matchKey, entry.encryptedPassword, entry.updatedAt);
+                writtenIds.add(existing.id);
+            } else if (policy == ConflictPolicy.KEEP_BOTH && (entry.updatedAt == 0
+                    ? !hasSamePassword(entry.matchKey, entry.encryptedPassword)
+                    : countVersions(entry.matchKey, entry.updatedAt) == 0)) {
+                writtenIds.add((int) insertAsCopy(entry));
+            } else {
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    @Insert
+    void stageAll(List<StagedEntry> entries);
+
+    @Query("SELECT * FROM restore_staging WHERE sequence > :afterSequence ORDER BY sequence LIMIT :limit")
+    List<StagedEntry> getStaged(long afterSequence, int limit);
+
+    @Query("DELETE FROM restore_staging")
+    void clearStaged();
+
+    /**
+     * Merges every staged entry into the vault in staging order, {@code batchSize} at a time,
+     * and empties the staging table, all in one transaction.
+     * @param writtenIds Receives the id of every row inserted or replaced.
+     * @return The number of entries left out in favour of the one in the vault.
+     */
+    @Transaction
+    default int promoteStaged(ConflictPolicy policy, int batchSize, Collection<Integer> writtenIds) {
+        int kept = 0;
+        long afterSequence = 0;
+        List<StagedEntry> staged;
+        while (!(staged = getStaged(afterSequence, batchSize)).isEmpty()) {
+            List<PasswordEntry> entries = new ArrayList<>(staged.size());
+            for (StagedEntry entry : staged) {
+                entries.add(entry.toEntry());
+            }
+            kept += mergeAll(entries, policy, writtenIds);
+            afterSequence = staged.get(staged.size() - 1).sequence;
+        }
+        clearStaged();
+        return kept;
+    }
 
     @Update
     void update(PasswordEntry passwordEntry);
 
+    // Edits replace the content only, so usage statistics survive them. A row moved to a match
+    // key that is already taken becomes a copy there; the right-hand sides all see the old row.
+    @Query("UPDATE password_table SET website = :website, username = :username, encryptedPassword = :encryptedPassword, "
+            + "updatedAt = :updatedAt, matchKey = :matchKey, copyNumber = CASE WHEN matchKey = :matchKey THEN copyNumber "
+            + "ELSE (SELECT IFNULL(MAX(copyNumber) + 1, 0) FROM password_table WHERE matchKey = :matchKey) END WHERE id = :id")
+    void updateContent(int id, String website, String username, String matchKey, byte[] encryptedPassword, long updatedAt);
+
+    @Query("UPDATE password_table SET lastUsedAt = :usedAt, useCount = useCount + 1 WHERE id = :id")
+    void recordUse(int id, long usedAt);
+
+    @Update
+    void updateAll(List<PasswordEntry> passwordEntries);
+
     @Delete
     void delete(PasswordEntry passwordEntry);
 
     @Query("DELETE FROM password_table")
     void deleteAllPasswords();
 
-    @Query("SELECT * FROM password_table ORDER BY website ASC")
-    LiveData<List<PasswordEntry>> getAllPasswords();
-
+    // Loads every ciphertext at once; the app reads secrets by id or in id ranges instead
     @Query("SELECT * FROM password_table ORDER BY website ASC")
     List<PasswordEntry> getAllPasswordsSync();
+
+    @Query("SELECT * FROM password_table WHERE id IN (:ids)")
+    List<PasswordEntry> getPasswordsByIds(List<Integer> ids);
+
+    @Query("SELECT id FROM password_table ORDER BY id")
+    List<Integer> getAllIds();
+
+    // Only VaultSnapshotCache reads the whole table, and without ciphertexts
+    @Query("SELECT id, website, username, lastUsedAt, useCount FROM password_table ORDER BY website ASC")
+    List<PasswordSummary> getAllSummariesSync();
+
+    @Query("SELECT id, website, username, lastUsedAt, useCount FROM password_table WHERE id IN (:ids)")
+    List<PasswordSummary> getSummariesByIds(List<Integer> ids);
+
+    // Change log for incremental backups, see PasswordChange
+    @Query("SELECT IFNULL(MAX(sequence), 0) FROM password_changes")
+    long getLastChangeSequence();
+
+    @Query("SELECT * FROM password_changes WHERE sequence > :since AND sequence <= :through ORDER BY sequence")
+    List<PasswordChange> getChangesBetween(long since, long through);
+
+    @Query("DELETE FROM password_changes WHERE deleted = 1 AND sequence <= :through")
+    int pruneDeletions(long through);
+
+    @Query("SELECT id, website, username, lastUsedAt, useCount FROM password_table ORDER BY website ASC")
+    PagingSource<Integer, PasswordSummary> getSummariesPaged();
+
+    // The only way the UI reads a secret, one row at a time
+    @Query("SELECT encryptedPassword FROM password_table WHERE id = :id")
+    byte[] getCiphertextById(int id);
+
+    @Query("DELETE FROM password_table WHERE id = :id")
+    void deleteById(int id);
+
+    /**
+     * Replaces a ciphertext only if the row still holds {@code oldValue}, so a re-encryption
+     * never overwrites a password the user changed in the meantime.
+     * @return 1 if the row was updated, 0 otherwise.
+     */
+    @Query("UPDATE password_table SET encryptedPassword = :newValue WHERE id = :id AND encryptedPassword = :oldValue")
+    int replaceEncryptedPassword(int id, byte[] oldValue, byte[] newValue);
+
+    // :keyId is a single byte, compared with the key id in each ciphertext's header, see EncryptionUtil
+    @Query("SELECT COUNT(*) FROM password_table WHERE substr(encryptedPassword, 2, 1) = :keyId")
+    int countWithKeyId(byte[] keyId);
+
+    default int countEntriesWithKeyVersion(int keyVersion) {
+        return countWithKeyId(new byte[]{(byte) keyVersion});
+    }
+
+    @Query("SELECT * FROM password_table WHERE id > :afterId AND substr(encryptedPassword, 2, 1) != :keyId ORDER BY id LIMIT :limit")
+    List<PasswordEntry> getEntriesNotWithKeyId(byte[] keyId, int afterId, int limit);
+
+    default List<PasswordEntry> getEntriesNotWithKeyVersion(int keyVersion, int afterId, int limit) {
+        return getEntriesNotWithKeyId(new byte[]{(byte) keyVersion}, afterId, limit);
+    }
+
+    @Transaction
+    default int replaceEncryptedPasswords(List<PasswordEntry> passwordEntries, List<byte[]> newValues) {
+        int replaced = 0;
+        for (int i = 0; i < passwordEntries.size(); i++) {
+            PasswordEntry entry = passwordEntries.get(i);
+            replaced += replaceEncryptedPassword(entry.getId(), entry.getEncryptedPassword(), newValues.get(i));
+        }
+        return replaced;
+    }
 }
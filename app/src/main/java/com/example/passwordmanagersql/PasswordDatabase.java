@@ -1,20 +1,33 @@
 package com.example.passwordmanagersql;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
-@Database(entities = {PasswordEntry.class}, version = 1, exportSchema = false)
+@Database(entities = {PasswordEntry.class, PasswordChange.class, StagedEntry.class}, version = 7, exportSchema = true)
 public abstract class PasswordDatabase extends RoomDatabase {
+    private static final String TAG = "PasswordDatabase";
+
     public abstract PasswordDao passwordDao();
 
     private static volatile PasswordDatabase INSTANCE;
-    private static final int NUMBER_OF_THREADS = 4;
-    static final ExecutorService databaseWriteExecutor = Executors.newFixedThreadPool(NUMBER_OF_THREADS);
+    private volatile DatabaseWriter writer;
+    private volatile VaultSnapshotCache snapshotCache;
+
+    // In WAL mode Android keeps one primary connection for writes and up to three read-only ones,
+    // so more read threads than that would only queue on the connection pool.
+    private static final int READ_THREADS = 3;
+    static final ExecutorService databaseReadExecutor = Executors.newFixedThreadPool(READ_THREADS);
+    static final ExecutorMetrics readMetrics = new ExecutorMetrics("reads");
 
     static PasswordDatabase getDatabase(final Context context) {
         if (INSTANCE == null) {
@@ -22,7 +35,7 @@ public abstract class PasswordDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     PasswordDatabase.class, "password_database")
-                            .fallbackToDestructiveMigration()
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
                             .addCallback(sRoomDatabaseCallback)
                             .build();
                 }
@@ -31,11 +44,260 @@ public abstract class PasswordDatabase extends RoomDatabase {
         return INSTANCE;
     }
 
+    /**
+     * @return The single writer all repository writes go through, see {@link DatabaseWriter}.
+     */
+    DatabaseWriter getWriter() {
+        if (writer == null) {
+            synchronized (this) {
+                if (writer == null) {
+                    writer = new DatabaseWriter(this);
+                }
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * @return The shared snapshot of the vault, see {@link VaultSnapshotCache}.
+     */
+    VaultSnapshotCache getSnapshotCache() {
+        if (snapshotCache == null) {
+            synchronized (this) {
+                if (snapshotCache == null) {
+                    snapshotCache = new VaultSnapshotCache(this, databaseReadExecutor);
+                }
+            }
+        }
+        return snapshotCache;
+    }
+
+    /**
+     * Drops the cached vault snapshot if the database has been opened.
+     */
+    static void evictSnapshot() {
+        PasswordDatabase database = INSTANCE;
+        if (database != null && database.snapshotCache != null) {
+            database.snapshotCache.evict();
+        }
+    }
+
+    /**
+     * @return One line with the queue depth and wait times of the read pool and the writer.
+     */
+    String describeExecutorMetrics() {
+        DatabaseWriter databaseWriter = getWriter();
+        return readMetrics + "; " + databaseWriter.getMetrics() + " transactions=" + databaseWriter.getTransactionCount();
+    }
+
+    private static final int MIGRATION_BATCH_SIZE = 500;
+
+    /**
+     * Version 2 stores ciphertexts as headered BLOBs instead of Base64 text.
+     * SQLite cannot change a column type in place, so rows are copied into a new table
+     * in id order, one bounded cursor window at a time. A row whose text is not valid Base64
+     * could never be decrypted, so it is logged and left out rather than failing the migration,
+     * which would fail every launch after it.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `password_table_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `website` TEXT, `username` TEXT, `encryptedPassword` BLOB)");
+
+            SupportSQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO `password_table_new` (`id`, `website`, `username`, `encryptedPassword`) VALUES (?, ?, ?, ?)");
+            int lastId = Integer.MIN_VALUE;
+            while (true) {
+                int copied = 0;
+                try (Cursor cursor = db.query(
+                        "SELECT `id`, `website`, `username`, `encryptedPassword` FROM `password_table` WHERE `id` > ? ORDER BY `id` LIMIT " + MIGRATION_BATCH_SIZE,
+                        new Object[]{lastId})) {
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getInt(0);
+                        copied++;
+                        byte[] blob = null;
+                        if (!cursor.isNull(3)) {
+                            try {
+                                blob = EncryptionUtil.fromLegacyText(cursor.getString(3));
+                            } catch (IllegalArgumentException e) {
+                                Log.w(TAG, "Dropping entry " + lastId + ": its ciphertext is not valid Base64");
+                                continue;
+                            }
+                        }
+                        insert.clearBindings();
+                        insert.bindLong(1, lastId);
+                        bindStringOrNull(insert, 2, cursor.isNull(1) ? null : cursor.getString(1));
+                        bindStringOrNull(insert, 3, cursor.isNull(2) ? null : cursor.getString(2));
+                        if (blob == null) {
+                            insert.bindNull(4);
+                        } else {
+                            insert.bindBlob(4, blob);
+                        }
+                        insert.executeInsert();
+                    }
+                }
+                if (copied < MIGRATION_BATCH_SIZE) {
+                    break;
+                }
+            }
+
+            db.execSQL("DROP TABLE `password_table`");
+            db.execSQL("ALTER TABLE `password_table_new` RENAME TO `password_table`");
+        }
+    };
+
+    // Version 3 records usage for frecency ranking; existing entries start out unused.
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `password_table` ADD COLUMN `lastUsedAt` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `password_table` ADD COLUMN `useCount` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    // Version 4 indexes website, so each page of the listing is an index range instead of a sort.
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_password_table_website` ON `password_table` (`website`)");
+        }
+    };
+
+    /**
+     * Version 5 gives every entry the match key restores merge on, unique together with a copy
+     * number. Keys are normalized in Java, so they are computed one bounded batch at a time;
+     * entries that already share a key become copies in id order.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("ALTER TABLE `password_table` ADD COLUMN `matchKey` TEXT");
+            db.execSQL("ALTER TABLE `password_table` ADD COLUMN `copyNumber` INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("ALTER TABLE `password_table` ADD COLUMN `updatedAt` INTEGER NOT NULL DEFAULT 0");
+
+            SupportSQLiteStatement update = db.compileStatement("UPDATE `password_table` SET `matchKey` = ? WHERE `id` = ?");
+            int[] ids = new int[MIGRATION_BATCH_SIZE];
+            String[] keys = new String[MIGRATION_BATCH_SIZE];
+            int lastId = Integer.MIN_VALUE;
+            int read;
+            do {
+                read = 0;
+                try (Cursor cursor = db.query(
+                        "SELECT `id`, `website`, `username` FROM `password_table` WHERE `id` > ? ORDER BY `id` LIMIT " + MIGRATION_BATCH_SIZE,
+                        new Object[]{lastId})) {
+                    while (cursor.moveToNext()) {
+                        ids[read] = cursor.getInt(0);
+                        keys[read] = PasswordEntry.matchKey(cursor.isNull(1) ? null : cursor.getString(1),
+                                cursor.isNull(2) ? null : cursor.getString(2));
+                        read++;
+                    }
+                }
+                // Written once the cursor is closed, so no row changes under an open read
+                for (int i = 0; i < read; i++) {
+                    update.clearBindings();
+                    update.bindString(1, keys[i]);
+                    update.bindLong(2, ids[i]);
+                    update.executeUpdateDelete();
+                    lastId = ids[i];
+                }
+            } while (read == MIGRATION_BATCH_SIZE);
+
+            // The temporary index keeps the count for each duplicate from scanning the table
+            db.execSQL("CREATE INDEX `password_table_matchKey_id` ON `password_table` (`matchKey`, `id`)");
+            db.execSQL("UPDATE `password_table` SET `copyNumber` = (SELECT COUNT(*) FROM `password_table` AS `earlier` "
+                    + "WHERE `earlier`.`matchKey` = `password_table`.`matchKey` AND `earlier`.`id` < `password_table`.`id`) "
+                    + "WHERE EXISTS (SELECT 1 FROM `password_table` AS `earlier` "
+                    + "WHERE `earlier`.`matchKey` = `password_table`.`matchKey` AND `earlier`.`id` < `password_table`.`id`)");
+            db.execSQL("DROP INDEX `password_table_matchKey_id`");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_password_table_matchKey_copyNumber` ON `password_table` (`matchKey`, `copyNumber`)");
+            createCopyTriggers(db);
+        }
+    };
+
+    /**
+     * Version 6 adds the change log for incremental backups. Existing rows get no entries:
+     * a backup chain always starts with a full backup, which exports them anyway.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `password_changes` (`sequence` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `entryId` INTEGER NOT NULL, `deleted` INTEGER NOT NULL)");
+            db.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_password_changes_entryId` ON `password_changes` (`entryId`)");
+            createChangeLogTriggers(db);
+        }
+    };
+
+    /**
+     * Room does not generate triggers for plain entities, so these are created both here and
+     * when the database is first created. Each change deletes the entry's old row before
+     * inserting, rather than INSERT OR REPLACE, because a trigger takes the conflict policy of
+     * the statement that fired it and Room writes with OR ABORT. An update is logged only when it
+     * changes the content: usage statistics are not backed up, and re-encrypting a password under
+     * a new key leaves its modification time alone, so a key rotation does not turn the next
+     * increment into a full backup.
+     */
+    static void createChangeLogTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS password_changes_AFTER_INSERT AFTER INSERT ON `password_table` BEGIN "
+                + "DELETE FROM `password_changes` WHERE `entryId` = NEW.`id`; "
+                + "INSERT INTO `password_changes` (`entryId`, `deleted`) VALUES (NEW.`id`, 0); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS password_changes_AFTER_UPDATE AFTER UPDATE OF `website`, `username`, `updatedAt` ON `password_table` "
+                + "WHEN OLD.`updatedAt` IS NOT NEW.`updatedAt` OR OLD.`website` IS NOT NEW.`website` OR OLD.`username` IS NOT NEW.`username` BEGIN "
+                + "DELETE FROM `password_changes` WHERE `entryId` = NEW.`id`; "
+                + "INSERT INTO `password_changes` (`entryId`, `deleted`) VALUES (NEW.`id`, 0); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS password_changes_AFTER_DELETE AFTER DELETE ON `password_table` BEGIN "
+                + "DELETE FROM `password_changes` WHERE `entryId` = OLD.`id`; "
+                + "INSERT INTO `password_changes` (`entryId`, `deleted`) VALUES (OLD.`id`, 1); END");
+    }
+
+    /**
+     * Version 7 adds the staging table restores and imports write to before anything reaches
+     * the vault, see {@link StagedEntry}.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `restore_staging` (`sequence` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`website` TEXT, `username` TEXT, `encryptedPassword` BLOB, `updatedAt` INTEGER NOT NULL)");
+        }
+    };
+
+    /**
+     * Keeps copy 0 filled whenever any entry holds a match key: when that entry is deleted or
+     * moved to another key, the lowest remaining copy takes its place. A restored entry always
+     * claims copy 0, so its insert conflicts with an existing entry exactly when the key is taken.
+     */
+    static void createCopyTriggers(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS password_copies_AFTER_DELETE AFTER DELETE ON `password_table` "
+                + "WHEN OLD.`copyNumber` = 0 BEGIN "
+                + "UPDATE `password_table` SET `copyNumber` = 0 WHERE `id` = "
+                + "(SELECT `id` FROM `password_table` WHERE `matchKey` = OLD.`matchKey` ORDER BY `copyNumber` LIMIT 1); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS password_copies_AFTER_UPDATE AFTER UPDATE OF `matchKey` ON `password_table` "
+                + "WHEN OLD.`copyNumber` = 0 AND OLD.`matchKey` IS NOT NEW.`matchKey` BEGIN "
+                + "UPDATE `password_table` SET `copyNumber` = 0 WHERE `id` = "
+                + "(SELECT `id` FROM `password_table` WHERE `matchKey` = OLD.`matchKey` ORDER BY `copyNumber` LIMIT 1); END");
+    }
+
+    private static void bindStringOrNull(SupportSQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
     private static RoomDatabase.Callback sRoomDatabaseCallback = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            super.onCreate(db);
+            createChangeLogTriggers(db);
+            createCopyTriggers(db);
+        }
+
         @Override
         public void onOpen(SupportSQLiteDatabase db) {
             super.onOpen(db);
-            // Optional: Add code to populate the database when it's created or opened
+            // Entries staged by a restore the process did not live to finish; the vault never saw them
+            db.execSQL("DELETE FROM `restore_staging`");
         }
     };
 }
@@ -1,16 +1,36 @@
 package com.example.passwordmanagersql;
 
+import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
+import java.text.Normalizer;
+import java.util.Locale;
+
 // PasswordEntry.java
-@Entity(tableName = "password_table")
+@Entity(tableName = "password_table", indices = {
+        @Index("website"), // Paged listing orders by website
+        @Index(value = {"matchKey", "copyNumber"}, unique = true)}) // Restores merge on it, see ConflictPolicy
 public class PasswordEntry {
     @PrimaryKey(autoGenerate = true)
     public int id;
     public String website;
     public String username; // New field for username
-    public String encryptedPassword;
+    public byte[] encryptedPassword; // version | key id | iv | ciphertext, see EncryptionUtil
+    // Usage statistics for search ranking, see PasswordSearchIndex
+    @ColumnInfo(defaultValue = "0")
+    public long lastUsedAt;
+    @ColumnInfo(defaultValue = "0")
+    public int useCount;
+    // Website and username as compared for duplicates, kept in step by the setters
+    public String matchKey;
+    // 0 for the entry restores merge into; 1, 2, ... for copies kept alongside it
+    @ColumnInfo(defaultValue = "0")
+    public int copyNumber;
+    // When the website, username or password last changed, or 0 if unknown
+    @ColumnInfo(defaultValue = "0")
+    public long updatedAt;
 
     public void setId(int id) {
         this.id = id;
@@ -22,13 +42,15 @@ public class PasswordEntry {
 
     public void setWebsite(String website) {
         this.website = website;
+        this.matchKey = matchKey(website, username);
     }
 
     public void setUsername(String username) {
         this.username = username;
+        this.matchKey = matchKey(website, username);
     }
 
-    public void setEncryptedPassword(String encryptedPassword) {
+    public void setEncryptedPassword(byte[] encryptedPassword) {
         this.encryptedPassword = encryptedPassword;
     }
 
@@ -40,13 +62,59 @@ public class PasswordEntry {
         return username;
     }
 
-    public String getEncryptedPassword() {
+    public byte[] getEncryptedPassword() {
         return encryptedPassword;
     }
 
-    public PasswordEntry(String website, String username, String encryptedPassword) {
+    public long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    public void setLastUsedAt(long lastUsedAt) {
+        this.lastUsedAt = lastUsedAt;
+    }
+
+    public int getUseCount() {
+        return useCount;
+    }
+
+    public void setUseCount(int useCount) {
+        this.useCount = useCount;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public PasswordEntry(String website, String username, byte[] encryptedPassword) {
         this.website = website;
         this.username = username;
         this.encryptedPassword = encryptedPassword;
+        this.matchKey = matchKey(website, username);
+    }
+
+    /**
+     * @return The website without scheme, "www." or trailing slashes, and the username, both
+     * trimmed, NFKC-normalized and lower-cased, so that "https://www.Example.com/" and
+     * "example.com" with the same login count as one entry.
+     */
+    static String matchKey(String website, String username) {
+        String site = normalize(website).replaceFirst("^[a-z][a-z0-9+.-]*://", "");
+        if (site.startsWith("www.")) {
+            site = site.substring("www.".length());
+        }
+        int end = site.length();
+        while (end > 0 && site.charAt(end - 1) == '/') {
+            end--;
+        }
+        return site.substring(0, end) + '\u001f' + normalize(username);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : Normalizer.normalize(value, Normalizer.Form.NFKC).trim().toLowerCase(Locale.ROOT);
     }
 }
@@ -1,38 +1,292 @@
 package com.example.passwordmanagersql;
 
 import android.app.Application;
+import android.util.Log;
+
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.paging.Pager;
+import androidx.paging.PagingConfig;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Every read and write returns a CompletableFuture that completes once the query has returned
+ * or the write has committed. Nothing here blocks the caller, so callers chain on the result
+ * instead of waiting for it. Reads run on a pool sized for WAL; writes go through the single
+ * {@link DatabaseWriter} in submission order.
+ *
+ * The listing is served from the shared {@link VaultSnapshot}, which every write keeps current
+ * by reporting the rows it changed. Ciphertexts are not part of it; they are read by id.
+ */
 public class PasswordRepository {
+    private static final String TAG = "PasswordRepository";
+    private static final int PAGE_SIZE = 50;
+    private static final int ID_BATCH_SIZE = 500; // Well below SQLite's bound parameter limit
     private PasswordDao passwordDao;
-    private LiveData<List<PasswordEntry>> allPasswords;
+    private DatabaseWriter writer;
+    private VaultSnapshotCache snapshots;
+    private MediatorLiveData<List<PasswordSummary>> allSummaries = new MediatorLiveData<>();
 
     public PasswordRepository(Application application) {
         PasswordDatabase db = PasswordDatabase.getDatabase(application);
         passwordDao = db.passwordDao();
-        allPasswords = passwordDao.getAllPasswords();
+        writer = db.getWriter();
+        snapshots = db.getSnapshotCache();
+        allSummaries.addSource(snapshots.getLiveData(), snapshot -> {
+            if (snapshot != null) { // Null after an eviction; keep the last list until the reload
+                allSummaries.setValue(snapshot.getSummaries());
+            }
+        });
+    }
+
+
+    public LiveData<List<PasswordSummary>> getAllSummaries() {
+        return allSummaries;
+    }
+
+    /**
+     * @return A pager over the vault in website order. Pages hold no ciphertexts, and
+     * placeholders stand in for rows that have not been loaded.
+     */
+    public Pager<Integer, PasswordSummary> getSummaryPager() {
+        return new Pager<>(new PagingConfig(PAGE_SIZE, PAGE_SIZE, true), passwordDao::getSummariesPaged);
+    }
+
+    /**
+     * @return The stored ciphertext of one entry, or null if it no longer exists.
+     */
+    public CompletableFuture<byte[]> getCiphertextById(int id) {
+        return supply(() -> passwordDao.getCiphertextById(id));
+    }
+
+    /**
+     * @return The vault listing as of the last completed write. The entries are shared; do not modify them.
+     */
+    public CompletableFuture<VaultSnapshot> getSnapshot() {
+        return supply(snapshots::get);
     }
 
+    /**
+     * @return The entries with these ids that still exist, ciphertexts included, in one query
+     * per {@link #ID_BATCH_SIZE} ids.
+     */
+    public CompletableFuture<List<PasswordEntry>> getPasswordsByIds(List<Integer> ids) {
+        return supply(() -> {
+            List<PasswordEntry> entries = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i += ID_BATCH_SIZE) {
+                entries.addAll(passwordDao.getPasswordsByIds(ids.subList(i, Math.min(ids.size(), i + ID_BATCH_SIZE))));
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * @return Every entry id, for a full backup. The change-log position is read before the
+     * ids, so a change that lands in between is exported again by the next increment rather
+     * than missed.
+     */
+    public CompletableFuture<VaultChanges> getFullBackup() {
+        return supply(() -> {
+            long through = passwordDao.getLastChangeSequence();
+            return new VaultChanges(through, passwordDao.getAllIds(), Collections.<Integer>emptyList());
+        });
+    }
+
+    /**
+     * @return The entries changed and deleted after change-log sequence {@code since}, for an
+     * incremental backup. Costs one row per change, however large the vault.
+     */
+    public CompletableFuture<VaultChanges> getChangesSince(long since) {
+        return supply(() -> {
+            long through = Math.max(since, passwordDao.getLastChangeSequence());
+            List<Integer> changedIds = new ArrayList<>();
+            List<Integer> deletedIds = new ArrayList<>();
+            for (PasswordChange change : passwordDao.getChangesBetween(since, through)) {
+                (change.deleted ? deletedIds : changedIds).add(change.entryId);
+            }
+            return new VaultChanges(through, changedIds, deletedIds);
+        });
+    }
+
+    /**
+     * Drops deletion records that a full backup up to {@code through} has made unnecessary.
+     */
+    public CompletableFuture<Integer> pruneDeletions(long through) {
+        return write(changedIds -> passwordDao.pruneDeletions(through));
+    }
+
+    /**
+     * @return Up to {@code limit} entries after {@code afterId}, in id order, not sealed with {@code keyVersion}.
+     */
+    public CompletableFuture<List<PasswordEntry>> getEntriesNotWithKeyVersion(int keyVersion, int afterId, int limit) {
+        return supply(() -> passwordDao.getEntriesNotWithKeyVersion(keyVersion, afterId, limit));
+    }
+
+    /**
+     * Deletes a key version if no row references it. Runs on the writer, so every write queued
+     * before it has committed and none can land between the count and the deletion.
+     * @return Completes with true if the version was retired.
+     */
+    public CompletableFuture<Boolean> retireKeyVersionIfUnused(int keyVersion) {
+        return write(changedIds -> {
+            int remaining = passwordDao.countEntriesWithKeyVersion(keyVersion);
+            if (remaining > 0) {
+                Log.i(TAG, "Key version " + keyVersion + " still seals " + remaining + " entries");
+                return false;
+            }
+            EncryptionUtil.retireKeyVersion(keyVersion);
+            return true;
+        });
+    }
+
+    public CompletableFuture<Integer> replaceEncryptedPasswords(List<PasswordEntry> passwordEntries, List<byte[]> newValues) {
+        return write(changedIds -> {
+            for (PasswordEntry entry : passwordEntries) {
+                changedIds.add(entry.getId());
+            }
+            return passwordDao.replaceEncryptedPasswords(passwordEntries, newValues);
+        });
+    }
+
+    /**
+     * Re-encrypts an entry that was just decrypted if it still uses an older key version.
+     * A failure only means the row stays on its old key for now, so it is logged, not propagated.
+     * @return Completes with true if the row was re-encrypted.
+     */
+    public CompletableFuture<Boolean> reencryptIfStale(int id, byte[] ciphertext, String password) {
+        byte[] replacement;
+        try {
+            if (!EncryptionUtil.needsReencryption(ciphertext)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            replacement = EncryptionUtil.encrypt(password);
+        } catch (Exception e) {
+            Log.w(TAG, "Re-encryption on read failed for entry " + id, e);
+            return CompletableFuture.completedFuture(false);
+        }
+        // Encrypted before it is queued, so the writer thread only spends time on SQL
+        return write(changedIds -> {
+            changedIds.add(id);
+            return passwordDao.replaceEncryptedPassword(id, ciphertext, replacement) == 1;
+        });
+    }
+
+    public CompletableFuture<Void> insert(PasswordEntry passwordEntry) {
+        passwordEntry.setUpdatedAt(System.currentTimeMillis());
+        return write(changedIds -> {
+            changedIds.add((int) passwordDao.insertAsCopy(passwordEntry));
+            return null;
+        });
+    }
+
+    /**
+     * Stages restored entries without touching the vault, see {@link StagedEntry}.
+     */
+    public CompletableFuture<Void> stageAll(List<PasswordEntry> passwordEntries) {
+        List<StagedEntry> staged = new ArrayList<>(passwordEntries.size());
+        for (PasswordEntry entry : passwordEntries) {
+            staged.add(StagedEntry.of(entry));
+        }
+        return write(changedIds -> {
+            passwordDao.stageAll(staged);
+            return null;
+        });
+    }
+
+    /**
+     * Merges every staged entry into the vault in one transaction, see {@link PasswordDao#promoteStaged}.
+     * @return Completes with the number of entries left out in favour of the one in the vault.
+     */
+    public CompletableFuture<Integer> promoteStaged(ConflictPolicy policy) {
+        return write(changedIds -> passwordDao.promoteStaged(policy, BatchInserter.BATCH_SIZE, changedIds));
+    }
+
+    /**
+     * Drops every staged entry, for a restore that failed before it could be promoted.
+     */
+    public CompletableFuture<Void> discardStaged() {
+        return write(changedIds -> {
+            passwordDao.clearStaged();
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> update(PasswordEntry passwordEntry) {
+        long updatedAt = System.currentTimeMillis();
+        return write(changedIds -> {
+            changedIds.add(passwordEntry.getId());
+            passwordDao.updateContent(passwordEntry.getId(), passwordEntry.getWebsite(), passwordEntry.getUsername(),
+                    passwordEntry.matchKey, passwordEntry.getEncryptedPassword(), updatedAt);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> recordUse(int id) {
+        long usedAt = System.currentTimeMillis();
+        return write(changedIds -> {
+            changedIds.add(id);
+            passwordDao.recordUse(id, usedAt);
+            return null;
+        });
+    }
 
-    public LiveData<List<PasswordEntry>> getAllPasswords() {
-        return allPasswords;
+    public CompletableFuture<Void> updateAll(List<PasswordEntry> passwordEntries) {
+        return write(changedIds -> {
+            for (PasswordEntry entry : passwordEntries) {
+                changedIds.add(entry.getId());
+            }
+            passwordDao.updateAll(passwordEntries);
+            return null;
+        });
     }
 
-    public List<PasswordEntry> getAllPasswordsSync() throws ExecutionException, InterruptedException {
-        return PasswordDatabase.databaseWriteExecutor.submit(() -> passwordDao.getAllPasswordsSync()).get();
+    public CompletableFuture<Void> deleteById(int id) {
+        return write(changedIds -> {
+            changedIds.add(id);
+            passwordDao.deleteById(id);
+            return null;
+        });
     }
 
-    public void insert(PasswordEntry passwordEntry) {
-        PasswordDatabase.databaseWriteExecutor.execute(() -> passwordDao.insert(passwordEntry));
+    private static <T> CompletableFuture<T> supply(Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        PasswordDatabase.databaseReadExecutor.execute(PasswordDatabase.readMetrics.wrap(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }));
+        return result;
     }
 
-    public void update(PasswordEntry passwordEntry) {
-        PasswordDatabase.databaseWriteExecutor.execute(() -> passwordDao.update(passwordEntry));
+    private interface Write<T> {
+        /**
+         * @param changedIds Receives the id of every row the write inserts, updates or deletes.
+         */
+        T run(Set<Integer> changedIds) throws Exception;
     }
 
-    public void delete(PasswordEntry passwordEntry) {
-        PasswordDatabase.databaseWriteExecutor.execute(() -> passwordDao.delete(passwordEntry));
+    /**
+     * Runs a write on the writer and reports its rows to the snapshot twice: before the commit,
+     * so Room's invalidation finds them pending, and after it, so a refresh that ran in between
+     * cannot leave the old rows in place for anyone chaining on the result.
+     */
+    private <T> CompletableFuture<T> write(Write<T> task) {
+        Set<Integer> changedIds = new HashSet<>();
+        return writer.submit(() -> {
+            T result = task.run(changedIds);
+            snapshots.invalidate(changedIds);
+            return result;
+        }).thenApply(result -> {
+            snapshots.invalidate(changedIds);
+            return result;
+        });
     }
 }
@@ -0,0 +1,285 @@
+package com.example.passwordmanagersql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+/**
+ * In-memory, typo-tolerant index over website and username.
+ *
+ * Every word is split into bigrams with a boundary marker on each side ("$g", "gi", ..., "b$"),
+ * and each bigram maps to the slots of the entries that contain it. A query collects candidates
+ * by counting shared bigrams, so "gihtub" still finds "github", then ranks them by match quality
+ * and frecency (how often and how recently an entry was used).
+ *
+ * Not thread-safe: {@link PasswordViewModel} confines each instance to one search thread.
+ */
+class PasswordSearchIndex {
+    private static final char BOUNDARY = '$';
+    private static final double MIN_CONTAINMENT = 0.5; // Share of query bigrams a typo match must have
+    private static final double USERNAME_WEIGHT = 0.8;
+    private static final double FRECENCY_WEIGHT = 0.3;
+    private static final long FRECENCY_HALF_LIFE_MS = 14L * 24 * 60 * 60 * 1000;
+    private static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    private final Map<Integer, Integer> slotsById = new HashMap<>();
+    private final List<PasswordSummary> entries = new ArrayList<>(); // By slot; null once removed
+    private final List<String> websites = new ArrayList<>(); // Normalized, by slot
+    private final List<String> usernames = new ArrayList<>();
+    private final Map<Integer, IntList> postings = new HashMap<>(); // Keyed by bigram, see bigram()
+    private int deadSlots;
+    private List<PasswordSummary> indexed = Collections.emptyList();
+    private int[] counts = new int[0];
+
+    /**
+     * Brings the index in line with a new snapshot. Only entries whose text changed are
+     * re-tokenized; usage updates just replace the stored entry.
+     */
+    void update(List<PasswordSummary> snapshot) {
+        if (snapshot == indexed) {
+            return;
+        }
+        Set<Integer> seen = new HashSet<>(snapshot.size() * 2);
+        for (PasswordSummary entry : snapshot) {
+            seen.add(entry.getId());
+            Integer slot = slotsById.get(entry.getId());
+            if (slot == null) {
+                add(entry);
+            } else if (!normalize(entry.getWebsite()).equals(websites.get(slot))
+                    || !normalize(entry.getUsername()).equals(usernames.get(slot))) {
+                kill(slot);
+                add(entry);
+            } else {
+                entries.set(slot, entry);
+            }
+        }
+        for (Integer id : new ArrayList<>(slotsById.keySet())) {
+            if (!seen.contains(id)) {
+                kill(slotsById.get(id));
+            }
+        }
+        indexed = snapshot;
+        if (deadSlots > slotsById.size()) {
+            rebuild();
+        }
+    }
+
+    private void add(PasswordSummary entry) {
+        int slot = entries.size();
+        String website = normalize(entry.getWebsite());
+        String username = normalize(entry.getUsername());
+        entries.add(entry);
+        websites.add(website);
+        usernames.add(username);
+        slotsById.put(entry.getId(), slot);
+
+        Set<Integer> grams = new HashSet<>();
+        addBigrams(website, grams);
+        addBigrams(username, grams);
+        for (Integer gram : grams) {
+            IntList list = postings.get(gram);
+            if (list == null) {
+                list = new IntList();
+                postings.put(gram, list);
+            }
+            list.add(slot);
+        }
+    }
+
+    /**
+     * Postings are append-only; a removed slot stays in them until the next rebuild.
+     */
+    private void kill(int slot) {
+        slotsById.remove(entries.get(slot).getId());
+        entries.set(slot, null);
+        deadSlots++;
+    }
+
+    private void rebuild() {
+        List<PasswordSummary> live = new ArrayList<>(slotsById.size());
+        for (PasswordSummary entry : entries) {
+            if (entry != null) {
+                live.add(entry);
+            }
+        }
+        slotsById.clear();
+        entries.clear();
+        websites.clear();
+        usernames.clear();
+        postings.clear();
+        deadSlots = 0;
+        for (PasswordSummary entry : live) {
+            add(entry);
+        }
+    }
+
+    /**
+     * @return Up to {@code limit} entries, best first, or null if {@code cancelled} turned true.
+     */
+    List<PasswordSummary> search(String query, int limit, long now, BooleanSupplier cancelled) {
+        String normalized = normalize(query).trim();
+        Set<Integer> queryGrams = new HashSet<>();
+        addBigrams(normalized, queryGrams);
+        if (queryGrams.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // An entry needs enough shared bigrams for a typo match, or every inner bigram for a substring match
+        int innerGrams = 0;
+        for (int gram : queryGrams) {
+            if ((gram >>> 16) != BOUNDARY && (gram & 0xFFFF) != BOUNDARY) {
+                innerGrams++;
+            }
+        }
+        int minShared = Math.max(1, Math.min((int) Math.ceil(MIN_CONTAINMENT * queryGrams.size()), innerGrams));
+
+        if (counts.length < entries.size()) {
+            counts = new int[entries.size()];
+        }
+        IntList touched = new IntList();
+        for (Integer gram : queryGrams) {
+            IntList slots = postings.get(gram);
+            if (slots == null) {
+                continue;
+            }
+            for (int i = 0; i < slots.size; i++) {
+                int slot = slots.values[i];
+                if (counts[slot]++ == 0) {
+                    touched.add(slot);
+                }
+            }
+        }
+
+        PriorityQueue<ScoredEntry> best = new PriorityQueue<>(limit + 1, ScoredEntry.WORST_FIRST);
+        try {
+            for (int i = 0; i < touched.size; i++) {
+                if (i % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                    return null;
+                }
+                int slot = touched.values[i];
+                PasswordSummary entry = entries.get(slot);
+                if (entry == null || counts[slot] < minShared) {
+                    continue;
+                }
+                double containment = (double) counts[slot] / queryGrams.size();
+                double score = Math.max(
+                        matchScore(normalized, websites.get(slot), containment),
+                        USERNAME_WEIGHT * matchScore(normalized, usernames.get(slot), containment));
+                if (score <= 0 || (best.size() == limit && score + FRECENCY_WEIGHT < best.peek().score)) {
+                    continue; // Cannot make the top results even with the best possible frecency
+                }
+                best.add(new ScoredEntry(entry, score + FRECENCY_WEIGHT * frecency(entry, now)));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        } finally {
+            for (int i = 0; i < touched.size; i++) {
+                counts[touched.values[i]] = 0;
+            }
+        }
+
+        ScoredEntry[] ranked = best.toArray(new ScoredEntry[0]);
+        Arrays.sort(ranked, Collections.reverseOrder(ScoredEntry.WORST_FIRST));
+        List<PasswordSummary> results = new ArrayList<>(ranked.length);
+        for (ScoredEntry scored : ranked) {
+            results.add(scored.entry);
+        }
+        return results;
+    }
+
+    /**
+     * Exact prefixes beat word starts, which beat plain substrings, which beat typo matches.
+     * @param containment The share of query bigrams found in the entry, used for typo matches.
+     */
+    private static double matchScore(String query, String field, double containment) {
+        int index = field.indexOf(query);
+        if (index == 0) {
+            return 1.0;
+        }
+        if (index > 0) {
+            return Character.isLetterOrDigit(field.charAt(index - 1)) ? 0.8 : 0.9;
+        }
+        return containment >= MIN_CONTAINMENT ? 0.7 * containment : 0;
+    }
+
+    /**
+     * @return A value in [0, 1) that grows with use count and halves every two weeks of disuse.
+     */
+    static double frecency(PasswordSummary entry, long now) {
+        if (entry.getUseCount() <= 0) {
+            return 0;
+        }
+        double age = Math.max(0, now - entry.getLastUsedAt());
+        double raw = Math.log1p(entry.getUseCount()) * Math.pow(0.5, age / FRECENCY_HALF_LIFE_MS);
+        return raw / (1 + raw);
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds the bigrams of every word, each packed into an int with {@link #bigram}.
+     * {@link #BOUNDARY} is not a letter or digit, so it only ever marks word edges.
+     */
+    private static void addBigrams(String text, Set<Integer> grams) {
+        char previous = BOUNDARY;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                grams.add(bigram(previous, c));
+                previous = c;
+            } else if (previous != BOUNDARY) {
+                grams.add(bigram(previous, BOUNDARY));
+                previous = BOUNDARY;
+            }
+        }
+        if (previous != BOUNDARY) {
+            grams.add(bigram(previous, BOUNDARY));
+        }
+    }
+
+    private static int bigram(char first, char second) {
+        return (first << 16) | second;
+    }
+
+    private static final class ScoredEntry {
+        static final Comparator<ScoredEntry> WORST_FIRST = (a, b) -> {
+            int byScore = Double.compare(a.score, b.score);
+            if (byScore != 0) {
+                return byScore;
+            }
+            // Equal scores fall back to alphabetical order, so "a" ranks above "b"
+            return String.CASE_INSENSITIVE_ORDER.compare(String.valueOf(b.entry.getWebsite()), String.valueOf(a.entry.getWebsite()));
+        };
+
+        final PasswordSummary entry;
+        final double score;
+
+        ScoredEntry(PasswordSummary entry, double score) {
+            this.entry = entry;
+            this.score = score;
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.passwordmanagersql;
+
+/**
+ * A vault row without its ciphertext, for the list, search and usage ranking.
+ * The secret is loaded with {@link PasswordDao#getCiphertextById(int)} only when it is shown or edited.
+ */
+public class PasswordSummary {
+    public int id;
+    public String website;
+    public String username;
+    public long lastUsedAt;
+    public int useCount;
+
+    public int getId() {
+        return id;
+    }
+
+    public String getWebsite() {
+        return website;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    public int getUseCount() {
+        return useCount;
+    }
+}
@@ -5,36 +5,177 @@ import androidx.annotation.NonNull;
 
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.ViewModelKt;
+import androidx.paging.PagingData;
+import androidx.paging.PagingLiveData;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PasswordViewModel extends AndroidViewModel {
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int MAX_SEARCH_RESULTS = 200;
+
     private PasswordRepository repository;
-    private LiveData<List<PasswordEntry>> allPasswords;
+    private LiveData<List<PasswordSummary>> allSummaries;
+
+    // The index is only touched on searchExecutor; a newer query or snapshot cancels older searches
+    private ScheduledExecutorService searchExecutor; // Created on the first search
+    private final PasswordSearchIndex searchIndex = new PasswordSearchIndex();
+    private final AtomicInteger searchGeneration = new AtomicInteger();
+    private final MediatorLiveData<List<PasswordSummary>> searchResults = new MediatorLiveData<>();
+    private List<PasswordSummary> snapshot = Collections.emptyList();
+    private String searchQuery = "";
+    private ScheduledFuture<?> pendingSearch;
+
+    // What the list shows: the paged vault, or search results while a query is entered
+    private final LiveData<PagingData<PasswordSummary>> pagedPasswords;
+    private final MediatorLiveData<PagingData<PasswordSummary>> listing = new MediatorLiveData<>();
+    private boolean searching;
 
     public PasswordViewModel(@NonNull Application application) {
         super(application);
         repository = new PasswordRepository(application);
-        allPasswords = repository.getAllPasswords();
+        allSummaries = repository.getAllSummaries();
+        searchResults.addSource(allSummaries, entries -> {
+            snapshot = entries;
+            scheduleSearch(0);
+        });
+
+        pagedPasswords = PagingLiveData.cachedIn(
+                PagingLiveData.getLiveData(repository.getSummaryPager()), ViewModelKt.getViewModelScope(this));
+        listing.addSource(pagedPasswords, pagingData -> {
+            if (!searching) {
+                listing.setValue(pagingData);
+            }
+        });
+    }
+
+    /**
+     * @return Pages of the vault in website order, replaced by the ranked search results while
+     * a query is entered. Only the search needs the whole vault in memory, and only while it is active.
+     */
+    public LiveData<PagingData<PasswordSummary>> getListing() {
+        return listing;
+    }
+
+    /**
+     * @return The entries matching the current search query, best match first;
+     * all entries in website order while it is blank.
+     */
+    public LiveData<List<PasswordSummary>> getSearchResults() {
+        return searchResults;
+    }
+
+    public void setSearchQuery(String query) {
+        searchQuery = query;
+        boolean blank = query.trim().isEmpty();
+        if (blank && searching) {
+            searching = false;
+            listing.removeSource(searchResults);
+            if (pagedPasswords.getValue() != null) {
+                listing.setValue(pagedPasswords.getValue());
+            }
+        } else if (!blank && !searching) {
+            searching = true;
+            listing.addSource(searchResults, results -> listing.setValue(PagingData.from(results)));
+        }
+        scheduleSearch(SEARCH_DEBOUNCE_MS);
+    }
+
+    public CompletableFuture<byte[]> getCiphertextById(int id) {
+        return repository.getCiphertextById(id);
+    }
+
+    private void scheduleSearch(long delayMs) {
+        int generation = searchGeneration.incrementAndGet();
+        if (pendingSearch != null) {
+            pendingSearch.cancel(false);
+        }
+        if (searchExecutor == null) {
+            searchExecutor = Executors.newSingleThreadScheduledExecutor();
+        }
+        List<PasswordSummary> entries = snapshot;
+        String query = searchQuery;
+        pendingSearch = searchExecutor.schedule(() -> {
+            searchIndex.update(entries);
+            List<PasswordSummary> results = query.trim().isEmpty()
+                    ? entries
+                    : searchIndex.search(query, MAX_SEARCH_RESULTS, System.currentTimeMillis(),
+                            () -> searchGeneration.get() != generation);
+            if (results != null && searchGeneration.get() == generation) {
+                searchResults.postValue(results);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+        }
+    }
+
+    public CompletableFuture<List<PasswordEntry>> getPasswordsByIds(List<Integer> ids) {
+        return repository.getPasswordsByIds(ids);
+    }
+
+    public LiveData<List<PasswordSummary>> getAllSummaries() {
+        return allSummaries;
+    }
+
+    public CompletableFuture<VaultChanges> getFullBackup() {
+        return repository.getFullBackup();
+    }
+
+    public CompletableFuture<VaultChanges> getChangesSince(long since) {
+        return repository.getChangesSince(since);
+    }
+
+    public CompletableFuture<Integer> pruneDeletions(long through) {
+        return repository.pruneDeletions(through);
+    }
+
+    public CompletableFuture<Boolean> reencryptIfStale(int id, byte[] ciphertext, String password) {
+        return repository.reencryptIfStale(id, ciphertext, password);
+    }
+
+    public CompletableFuture<Void> insert(PasswordEntry passwordEntry) {
+        return repository.insert(passwordEntry);
+    }
+
+    public CompletableFuture<Void> stageAll(List<PasswordEntry> passwordEntries) {
+        return repository.stageAll(passwordEntries);
+    }
+
+    public CompletableFuture<Integer> promoteStaged(ConflictPolicy policy) {
+        return repository.promoteStaged(policy);
     }
 
-    public List<PasswordEntry> getAllPasswordsSync() throws ExecutionException, InterruptedException {
-        return repository.getAllPasswordsSync();
+    public CompletableFuture<Void> discardStaged() {
+        return repository.discardStaged();
     }
 
-    public LiveData<List<PasswordEntry>> getAllPasswords() {
-        return allPasswords;
+    public CompletableFuture<Void> update(PasswordEntry passwordEntry) {
+        return repository.update(passwordEntry);
     }
 
-    public void insert(PasswordEntry passwordEntry) {
-        repository.insert(passwordEntry);
+    public CompletableFuture<Void> recordUse(int id) {
+        return repository.recordUse(id);
     }
 
-    public void update(PasswordEntry passwordEntry) {
-        repository.update(passwordEntry);
+    public CompletableFuture<Void> updateAll(List<PasswordEntry> passwordEntries) {
+        return repository.updateAll(passwordEntries);
     }
 
-    public void delete(PasswordEntry passwordEntry) {
-        repository.delete(passwordEntry);
+    public CompletableFuture<Void> deleteById(int id) {
+        return repository.deleteById(id);
     }
 }
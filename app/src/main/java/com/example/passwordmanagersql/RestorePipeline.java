@@ -0,0 +1,162 @@
+package com.example.passwordmanagersql;
+
+import android.util.Log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.AEADBadTagException;
+
+/**
+ * Staged restore and import engine: the calling thread reads items, a worker pool sized to
+ * the core count decrypts and re-encrypts them, and a single writer thread hands the results
+ * to a {@link BatchInserter} in the order they were read.
+ *
+ * The queue between the stages is bounded, so at most {@link #QUEUE_CAPACITY_PER_WORKER}
+ * items per worker are held in memory regardless of the backup size. The inserter only stages
+ * entries; the caller commits them once every run that feeds it has succeeded.
+ */
+public class RestorePipeline<T> {
+    private static final String TAG = "RestorePipeline";
+    private static final int QUEUE_CAPACITY_PER_WORKER = 32;
+    private static final long OFFER_TIMEOUT_MS = 100;
+    private static final long WRITER_STOP_TIMEOUT_MS = 10_000;
+    private static final Future<PasswordEntry> END_OF_INPUT = new FutureTask<>(() -> null);
+
+    public interface Source<T> {
+        /**
+         * @return The next raw item, or null at the end of the input.
+         */
+        T read() throws Exception;
+    }
+
+    public interface Stage<T> {
+        /**
+         * Turns a raw item into an entry ready to insert. Runs on a worker thread.
+         */
+        PasswordEntry process(T item) throws Exception;
+    }
+
+    public static class Result {
+        public final int restored; // Staged, in this run and earlier ones into the same inserter
+        public final int failed;
+
+        Result(int restored, int failed) {
+            this.restored = restored;
+            this.failed = failed;
+        }
+    }
+
+    private final int workerCount;
+
+    public RestorePipeline() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RestorePipeline(int workerCount) {
+        this.workerCount = Math.max(1, workerCount);
+    }
+
+    /**
+     * Caps the worker count for stages that need a large working set per item,
+     * such as an Argon2 derivation, so the pool cannot exhaust the heap.
+     * @param bytesPerItem The memory one stage invocation needs.
+     */
+    public static int workersForMemory(long bytesPerItem) {
+        Runtime runtime = Runtime.getRuntime();
+        long affordable = runtime.maxMemory() / (2 * Math.max(1, bytesPerItem));
+        return (int) Math.max(1, Math.min(runtime.availableProcessors(), affordable));
+    }
+
+    /**
+     * Runs the pipeline to completion on the calling thread, staging every entry in the inserter.
+     * Items that fail in the stage are logged with their position and skipped, like a sequential run,
+     * unless they fail authentication: that means a wrong passphrase or a tampered file, so the run stops.
+     * If the run fails for any reason, everything the inserter staged is discarded before the
+     * failure is rethrown, so the vault is left as it was and no later run promotes those rows.
+     * @return The number of staged and skipped items, once the last batch is staged.
+     * @throws Exception if the source or the database write fails, or an item fails authentication.
+     */
+    public Result run(Source<T> source, Stage<T> stage, BatchInserter inserter) throws Exception {
+        ExecutorService workers = Executors.newFixedThreadPool(workerCount);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        BlockingQueue<Future<PasswordEntry>> queue = new ArrayBlockingQueue<>(workerCount * QUEUE_CAPACITY_PER_WORKER);
+
+        Future<Result> written = writer.submit(() -> drain(queue, inserter));
+        boolean completed = false;
+        try {
+            T item;
+            while ((item = source.read()) != null) {
+                final T current = item;
+                enqueue(queue, workers.submit(() -> stage.process(current)), written);
+            }
+            if (!written.isDone()) {
+                enqueue(queue, END_OF_INPUT, written);
+            }
+            Result result = written.get();
+            completed = true;
+            return result;
+        } finally {
+            workers.shutdownNow();
+            writer.shutdownNow();
+            if (!completed) {
+                // A truncated file ends in a read failure; what was read before it must not be restored.
+                // The writer is stopped first, so it cannot stage another batch after the discard.
+                writer.awaitTermination(WRITER_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                inserter.discard();
+            }
+        }
+    }
+
+    private static Result drain(BlockingQueue<Future<PasswordEntry>> queue, BatchInserter inserter)
+            throws InterruptedException, ExecutionException {
+        int position = 0;
+        int failed = 0;
+        Future<PasswordEntry> next;
+        while ((next = queue.take()) != END_OF_INPUT) {
+            position++;
+            PasswordEntry entry;
+            try {
+                entry = next.get();
+            } catch (ExecutionException e) {
+                if (isAuthenticationFailure(e.getCause())) {
+                    throw new SecurityException("Item " + position + " failed authentication", e.getCause());
+                }
+                Log.e(TAG, "Skipping item " + position + ": " + e.getCause());
+                failed++;
+                continue;
+            }
+            inserter.add(entry); // Staged in batches, see BatchInserter#finish
+        }
+        return new Result(inserter.finish(), failed);
+    }
+
+    private static boolean isAuthenticationFailure(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SecurityException || cause instanceof AEADBadTagException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks while the queue is full, but gives up if the writer has already failed,
+     * so a database error cannot leave the reader waiting forever.
+     */
+    private static void enqueue(BlockingQueue<Future<PasswordEntry>> queue, Future<PasswordEntry> item, Future<Result> written)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(item, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            if (written.isDone()) {
+                written.get();
+                throw new IllegalStateException("Restore writer stopped early");
+            }
+        }
+    }
+}
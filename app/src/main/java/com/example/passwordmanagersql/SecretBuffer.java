@@ -0,0 +1,148 @@
+package com.example.passwordmanagersql;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plaintext bytes in off-heap memory that is zero-filled in place when closed.
+ *
+ * Unlike a String or a byte[] handed around the heap, the bytes are never copied by the
+ * garbage collector, so wiping the buffer really removes them. Buffers of up to
+ * {@link #POOLED_CAPACITY} bytes come from a small pool and go back to it when closed,
+ * so bulk loops do not allocate per item.
+ *
+ * <pre>
+ * try (SecretBuffer password = EncryptionUtil.decryptToBuffer(ciphertext)) {
+ *     ...
+ * }
+ * </pre>
+ */
+public final class SecretBuffer implements AutoCloseable {
+    static final int POOLED_CAPACITY = 4096;
+    private static final int MAX_POOLED = 16;
+    private static final byte[] ZEROS = new byte[1024];
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private ByteBuffer buffer; // Null once closed
+
+    private SecretBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return An empty buffer with room for at least {@code capacity} bytes, positioned at 0.
+     */
+    public static SecretBuffer allocate(int capacity) {
+        if (capacity > POOLED_CAPACITY) {
+            return new SecretBuffer(ByteBuffer.allocateDirect(capacity));
+        }
+        ByteBuffer buffer = pool.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+        } else {
+            buffer = ByteBuffer.allocateDirect(POOLED_CAPACITY);
+        }
+        buffer.limit(capacity);
+        return new SecretBuffer(buffer);
+    }
+
+    /**
+     * Encodes characters as UTF-8 straight into a new buffer, with no intermediate String.
+     * @return The buffer, flipped so the encoded bytes are between position and limit.
+     */
+    public static SecretBuffer encodeUtf8(char[] chars, int offset, int length) throws CharacterCodingException {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        SecretBuffer secret = allocate((int) Math.ceil(length * (double) encoder.maxBytesPerChar()));
+        try {
+            CoderResult result = encoder.encode(CharBuffer.wrap(chars, offset, length), secret.buffer, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            encoder.flush(secret.buffer);
+            secret.buffer.flip();
+            return secret;
+        } catch (CharacterCodingException | RuntimeException e) {
+            secret.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The bytes, for reading or writing. Valid until {@link #close()}.
+     */
+    public ByteBuffer buffer() {
+        if (buffer == null) {
+            throw new IllegalStateException("SecretBuffer is closed");
+        }
+        return buffer;
+    }
+
+    /**
+     * Decodes the bytes between position and limit as UTF-8 without moving the position.
+     * @return The characters. The caller zero-fills them when done.
+     */
+    public char[] decodeUtf8() throws CharacterCodingException {
+        ByteBuffer bytes = buffer().duplicate();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        char[] chars = new char[bytes.remaining()]; // UTF-8 never has more chars than bytes
+        CharBuffer out = CharBuffer.wrap(chars);
+        try {
+            CoderResult result = decoder.decode(bytes, out, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            decoder.flush(out);
+            return Arrays.copyOf(chars, out.position());
+        } finally {
+            Arrays.fill(chars, '\0');
+        }
+    }
+
+    /**
+     * Zero-fills the whole buffer and returns it to the pool. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        ByteBuffer released = buffer;
+        if (released == null) {
+            return;
+        }
+        buffer = null;
+        wipe(released);
+        if (released.capacity() == POOLED_CAPACITY && pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(released);
+        } else if (released.capacity() == POOLED_CAPACITY) {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Zero-fills the whole capacity of a buffer, heap or direct, and clears it.
+     */
+    static void wipe(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            Arrays.fill(buffer.array(), buffer.arrayOffset(), buffer.arrayOffset() + buffer.capacity(), (byte) 0);
+        } else {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                buffer.put(ZEROS, 0, Math.min(ZEROS.length, buffer.remaining()));
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.passwordmanagersql;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last few decrypted passwords for a few seconds, so revealing an entry and then
+ * editing it decrypts it once.
+ *
+ * Entries are keyed by id and by the exact ciphertext they were decrypted from, so an edit or
+ * re-encryption of the row is always a miss. Plaintexts are held as char[] and zero-filled when
+ * they go unused for {@link #IDLE_TTL_MS}, are pushed out by newer entries, or the cache is
+ * cleared: when an activity stops, the keys rotate, or memory is trimmed.
+ */
+final class SecretCache {
+    private static final String TAG = "SecretCache";
+    static final long IDLE_TTL_MS = 8000;
+    static final int MAX_ENTRIES = 4;
+
+    private static final class Entry {
+        final byte[] ciphertext;
+        final char[] plaintext;
+        long lastUsed;
+
+        Entry(byte[] ciphertext, char[] plaintext, long lastUsed) {
+            this.ciphertext = ciphertext;
+            this.plaintext = plaintext;
+            this.lastUsed = lastUsed;
+        }
+
+        void wipe() {
+            Arrays.fill(plaintext, '\0');
+        }
+    }
+
+    // Least recently used first. Everything below is guarded by SecretCache.class.
+    private static final Map<Integer, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES * 2, 0.75f, true);
+    private static long hits;
+    private static long misses;
+    private static ScheduledExecutorService expiryExecutor; // Created on the first put
+    private static ScheduledFuture<?> pendingExpiry;
+
+    private SecretCache() {
+    }
+
+    /**
+     * @return The plaintext of a row, from the cache or freshly decrypted. The array is the
+     * caller's own copy; zero-fill it when done.
+     * @throws Exception if decryption fails.
+     */
+    static char[] decrypt(int id, byte[] ciphertext) throws Exception {
+        synchronized (SecretCache.class) {
+            Entry entry = entries.get(id);
+            if (entry != null && Arrays.equals(entry.ciphertext, ciphertext)) {
+                hits++;
+                entry.lastUsed = System.currentTimeMillis();
+                return entry.plaintext.clone();
+            }
+            misses++;
+        }
+        char[] plaintext = EncryptionUtil.decryptToChars(ciphertext);
+        put(id, ciphertext, plaintext.clone());
+        return plaintext;
+    }
+
+    private static synchronized void put(int id, byte[] ciphertext, char[] plaintext) {
+        Entry replaced = entries.put(id, new Entry(ciphertext.clone(), plaintext, System.currentTimeMillis()));
+        if (replaced != null) {
+            replaced.wipe();
+        }
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > MAX_ENTRIES) {
+            eldest.next().wipe();
+            eldest.remove();
+        }
+        scheduleExpiry(IDLE_TTL_MS);
+    }
+
+    private static void scheduleExpiry(long delayMs) {
+        if (expiryExecutor == null) {
+            expiryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "secret-cache-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (pendingExpiry == null || pendingExpiry.isDone()) {
+            pendingExpiry = expiryExecutor.schedule(SecretCache::expire, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized void expire() {
+        long now = System.currentTimeMillis();
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            long expiresAt = entry.lastUsed + IDLE_TTL_MS;
+            if (expiresAt <= now) {
+                entry.wipe();
+                iterator.remove();
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiresAt);
+            }
+        }
+        pendingExpiry = null;
+        if (!entries.isEmpty()) {
+            scheduleExpiry(nextExpiry - now);
+        }
+    }
+
+    /**
+     * Zero-fills and drops every cached plaintext.
+     */
+    static synchronized void clear() {
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (Entry entry : entries.values()) {
+            entry.wipe();
+        }
+        entries.clear();
+        if (pendingExpiry != null) {
+            pendingExpiry.cancel(false);
+            pendingExpiry = null;
+        }
+        Log.d(TAG, "Cleared; " + hits + " hits, " + misses + " misses so far");
+    }
+
+    static synchronized long getHitCount() {
+        return hits;
+    }
+
+    static synchronized long getMissCount() {
+        return misses;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.passwordmanagersql;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * An entry read by a restore or import that is not in the vault yet. {@link BatchInserter}
+ * stages every entry here and moves them all into the vault in one transaction once the whole
+ * input has been read, so a failed or interrupted run leaves the vault as it was. The table has
+ * no triggers, so staged rows never reach the change log. It is emptied on every database open,
+ * which clears what a run killed half-way left behind.
+ */
+@Entity(tableName = "restore_staging")
+public class StagedEntry {
+    // Staging order, which is the order the entries are merged in
+    @PrimaryKey(autoGenerate = true)
+    public long sequence;
+    public String website;
+    public String username;
+    public byte[] encryptedPassword; // Already encrypted with the vault key, see EncryptionUtil
+    public long updatedAt;
+
+    static StagedEntry of(PasswordEntry entry) {
+        StagedEntry staged = new StagedEntry();
+        staged.website = entry.getWebsite();
+        staged.username = entry.getUsername();
+        staged.encryptedPassword = entry.getEncryptedPassword();
+        staged.updatedAt = entry.getUpdatedAt();
+        return staged;
+    }
+
+    PasswordEntry toEntry() {
+        PasswordEntry entry = new PasswordEntry(website, username, encryptedPassword);
+        entry.setUpdatedAt(updatedAt);
+        return entry;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.passwordmanagersql;
+
+import android.os.SystemClock;
+
+import java.util.Locale;
+
+/**
+ * Turns batch commits into a progress line with the average rate so far. Lines are produced at
+ * most every {@link #INTERVAL_MS}, so a fast import does not flood the UI thread with updates.
+ */
+final class ThroughputMeter implements BatchInserter.Listener {
+    private static final long INTERVAL_MS = 250;
+
+    interface Display {
+        void show(String progress);
+    }
+
+    private final String verb;
+    private final Display display;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private long shownAt;
+    private int count;
+
+    /**
+     * @param verb What is being done to the entries, such as "Imported".
+     */
+    ThroughputMeter(String verb, Display display) {
+        this.verb = verb;
+        this.display = display;
+    }
+
+    @Override
+    public void onBatchCommitted(int committed) {
+        count = committed;
+        long now = SystemClock.elapsedRealtime();
+        if (now - shownAt >= INTERVAL_MS) {
+            shownAt = now;
+            display.show(toString());
+        }
+    }
+
+    /**
+     * @return Entries per second since the meter was created.
+     */
+    long getRate() {
+        long elapsed = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        return count * 1000L / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s %,d entries (%,d/s)", verb, count, getRate());
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.passwordmanagersql;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What one backup exports: every entry for a full backup, or the entries changed and deleted
+ * after the previous backup for an incremental one. Entries are listed by id, and their
+ * ciphertexts are read a batch at a time while the backup is written. {@link #through} is the
+ * change-log sequence it covers, which the next incremental backup starts from.
+ */
+public final class VaultChanges {
+    public final long through;
+    public final List<Integer> changed;
+    public final List<Integer> deleted;
+
+    VaultChanges(long through, List<Integer> changed, List<Integer> deleted) {
+        this.through = through;
+        this.changed = Collections.unmodifiableList(changed);
+        this.deleted = Collections.unmodifiableList(deleted);
+    }
+}
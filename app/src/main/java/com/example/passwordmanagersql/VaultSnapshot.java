@@ -0,0 +1,90 @@
+package com.example.passwordmanagersql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable copy of the vault listing: ids, websites, usernames and usage, but no
+ * ciphertexts, so holding it costs the same however long the passwords are. Readers that need
+ * secrets load them by id. Entries are in website order, like the listing. They are shared by
+ * every reader of the snapshot, so treat them as read-only; {@link VaultSnapshotCache} replaces
+ * the whole snapshot instead of changing one.
+ */
+public final class VaultSnapshot {
+    static final VaultSnapshot EMPTY = new VaultSnapshot(new PasswordSummary[0]);
+
+    private static final Comparator<PasswordSummary> WEBSITE_ORDER = (a, b) -> {
+        int byWebsite = a.getWebsite() == null
+                ? (b.getWebsite() == null ? 0 : -1)
+                : (b.getWebsite() == null ? 1 : a.getWebsite().compareTo(b.getWebsite()));
+        return byWebsite != 0 ? byWebsite : Integer.compare(a.getId(), b.getId());
+    };
+
+    private final PasswordSummary[] entries;
+    private final List<PasswordSummary> summaries;
+
+    private VaultSnapshot(PasswordSummary[] entries) {
+        this.entries = entries;
+        this.summaries = Collections.unmodifiableList(Arrays.asList(entries));
+    }
+
+    static VaultSnapshot of(List<PasswordSummary> rows) {
+        PasswordSummary[] entries = rows.toArray(new PasswordSummary[0]);
+        Arrays.sort(entries, WEBSITE_ORDER);
+        return new VaultSnapshot(entries);
+    }
+
+    /**
+     * @param changedIds Every id that may have been inserted, updated or deleted.
+     * @param reloaded The current rows of those ids; an id without a row was deleted.
+     * @return A new snapshot with the changes applied. Unchanged rows are shared with this one.
+     */
+    VaultSnapshot withChanges(Collection<Integer> changedIds, List<PasswordSummary> reloaded) {
+        Map<Integer, PasswordSummary> rowsById = new HashMap<>(reloaded.size() * 2);
+        for (PasswordSummary row : reloaded) {
+            rowsById.put(row.getId(), row);
+        }
+        PasswordSummary[] next = entries.clone();
+        boolean reorder = false;
+        int removed = 0;
+        for (int i = 0; i < next.length; i++) {
+            int id = next[i].getId();
+            if (!changedIds.contains(id)) {
+                continue;
+            }
+            PasswordSummary row = rowsById.remove(id);
+            if (row == null) {
+                removed++;
+            } else if (WEBSITE_ORDER.compare(row, next[i]) != 0) {
+                reorder = true;
+            }
+            next[i] = row;
+        }
+        if (removed == 0 && rowsById.isEmpty() && !reorder) {
+            return new VaultSnapshot(next);
+        }
+        // What is left in rowsById was inserted
+        List<PasswordSummary> rows = new ArrayList<>(next.length - removed + rowsById.size());
+        for (PasswordSummary entry : next) {
+            if (entry != null) {
+                rows.add(entry);
+            }
+        }
+        rows.addAll(rowsById.values());
+        return of(rows);
+    }
+
+    public int size() {
+        return entries.length;
+    }
+
+    public List<PasswordSummary> getSummaries() {
+        return summaries;
+    }
+}
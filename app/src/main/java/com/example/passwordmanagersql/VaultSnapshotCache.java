@@ -0,0 +1,157 @@
+package com.example.passwordmanagersql;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.room.InvalidationTracker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Holds the current {@link VaultSnapshot} so that the listing and search share one copy of the
+ * vault instead of each reading the whole table.
+ *
+ * Repository writes report the ids they touch, once before their transaction commits and once
+ * after; a refresh then reloads only those rows and builds a new snapshot from the old one.
+ * Room's {@link InvalidationTracker} covers writes that did not report ids: if the table changes
+ * while no ids are pending, the next refresh reloads everything. Either way a reader never gets
+ * a snapshot older than the last write it has seen complete.
+ */
+final class VaultSnapshotCache {
+    private static final String TABLE = "password_table";
+    private static final int RELOAD_BATCH_SIZE = 500; // Well below SQLite's bound parameter limit
+
+    private final PasswordDatabase database;
+    private final PasswordDao passwordDao;
+    private final Executor executor;
+    private final SnapshotLiveData liveData = new SnapshotLiveData();
+    private final Object refreshLock = new Object();
+
+    // Guarded by this
+    private VaultSnapshot current; // Null until loaded and after eviction
+    private final Set<Integer> dirtyIds = new HashSet<>();
+    private boolean reloadAll;
+    private int epoch; // Bumped by evict() so a refresh in flight does not bring the snapshot back
+    private boolean observing; // Guarded by refreshLock
+
+    private final InvalidationTracker.Observer observer = new InvalidationTracker.Observer(TABLE) {
+        @Override
+        public void onInvalidated(@NonNull Set<String> tables) {
+            synchronized (VaultSnapshotCache.this) {
+                if (dirtyIds.isEmpty()) {
+                    reloadAll = true;
+                }
+            }
+            liveData.refreshIfActive();
+        }
+    };
+
+    VaultSnapshotCache(PasswordDatabase database, Executor executor) {
+        this.database = database;
+        this.passwordDao = database.passwordDao();
+        this.executor = executor;
+    }
+
+    /**
+     * Records rows that a write is about to change or has just changed.
+     */
+    synchronized void invalidate(Collection<Integer> ids) {
+        dirtyIds.addAll(ids);
+    }
+
+    /**
+     * @return The current snapshot, refreshed first if the table changed. Blocks on the
+     * database, so call it from a database executor.
+     */
+    VaultSnapshot get() {
+        synchronized (refreshLock) {
+            VaultSnapshot base;
+            List<Integer> ids;
+            int startEpoch;
+            if (!observing) {
+                // Room syncs its triggers when an observer is added, so this is done off the main thread
+                database.getInvalidationTracker().addObserver(observer);
+                observing = true;
+            }
+            synchronized (this) {
+                base = current;
+                if (base != null && !reloadAll && dirtyIds.isEmpty()) {
+                    return base;
+                }
+                ids = base == null || reloadAll ? null : new ArrayList<>(dirtyIds);
+                dirtyIds.clear();
+                reloadAll = false;
+                startEpoch = epoch;
+            }
+
+            VaultSnapshot next;
+            if (ids == null) {
+                next = VaultSnapshot.of(passwordDao.getAllSummariesSync());
+            } else {
+                List<PasswordSummary> rows = new ArrayList<>(ids.size());
+                for (int i = 0; i < ids.size(); i += RELOAD_BATCH_SIZE) {
+                    rows.addAll(passwordDao.getSummariesByIds(ids.subList(i, Math.min(ids.size(), i + RELOAD_BATCH_SIZE))));
+                }
+                next = base.withChanges(new HashSet<>(ids), rows);
+            }
+            synchronized (this) {
+                if (epoch == startEpoch) {
+                    current = next;
+                }
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Drops the snapshot, for when the vault is locked or memory runs low. The next read
+     * loads the table again.
+     */
+    void evict() {
+        synchronized (this) {
+            current = null;
+            dirtyIds.clear();
+            reloadAll = false;
+            epoch++;
+        }
+        liveData.clear();
+    }
+
+    /**
+     * @return The snapshot, kept current while observed.
+     */
+    LiveData<VaultSnapshot> getLiveData() {
+        return liveData;
+    }
+
+    private final class SnapshotLiveData extends LiveData<VaultSnapshot> {
+        @Override
+        protected void onActive() {
+            refresh();
+        }
+
+        // Observers get null and keep what they derived; the next active observer triggers a reload
+        void clear() {
+            postValue(null);
+        }
+
+        void refreshIfActive() {
+            if (hasActiveObservers()) {
+                refresh();
+            }
+        }
+
+        private void refresh() {
+            executor.execute(() -> {
+                VaultSnapshot snapshot = get();
+                if (snapshot != getValue()) {
+                    postValue(snapshot);
+                }
+            });
+        }
+    }
+}
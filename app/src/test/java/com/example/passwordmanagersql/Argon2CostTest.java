@@ -0,0 +1,86 @@
+package com.example.passwordmanagersql;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Argon2CostTest {
+    private static final long MB = 1024 * 1024L;
+    private static final long GENEROUS_MILLIS = 1_000_000_000L;
+
+    @Test
+    public void memoryCeilingIsAQuarterOfTheHeapBetweenTheFloorAndThePortableMaximum() {
+        assertEquals(Argon2Cost.MAX_MEMORY_KB, Argon2Cost.memoryCeilingKB(8192 * MB));
+        assertEquals(32 * 1024, Argon2Cost.memoryCeilingKB(128 * MB));
+        assertEquals(Argon2Cost.MIN_MEMORY_KB, Argon2Cost.memoryCeilingKB(16 * MB));
+    }
+
+    @Test
+    public void generousBudgetUsesTheWholeCeilingAndCapsPasses() {
+        Argon2Cost cost = Argon2Cost.calibrate(GENEROUS_MILLIS, Argon2Cost.MAX_MEMORY_KB, 4);
+
+        assertEquals(Argon2Cost.MAX_MEMORY_KB, cost.memoryKB);
+        assertEquals(Argon2Cost.MAX_ITERATIONS, cost.iterations);
+        assertEquals(4, cost.parallelism);
+    }
+
+    @Test
+    public void tinyBudgetTradesMemoryDownToTheFloor() {
+        Argon2Cost cost = Argon2Cost.calibrate(1, Argon2Cost.MAX_MEMORY_KB, 4);
+
+        assertEquals(Argon2Cost.MIN_MEMORY_KB, cost.memoryKB);
+        assertEquals(Argon2Cost.MIN_ITERATIONS, cost.iterations);
+    }
+
+    @Test
+    public void calibrationNeverExceedsThePortableMaximum() {
+        Argon2Cost cost = Argon2Cost.calibrate(GENEROUS_MILLIS, 4 * Argon2Cost.MAX_MEMORY_KB, 4);
+
+        assertEquals(Argon2Cost.MAX_MEMORY_KB, cost.memoryKB);
+    }
+
+    @Test
+    public void calibrationClampsLanesAndRoundsMemoryToSyncPoints() {
+        Argon2Cost cost = Argon2Cost.calibrate(GENEROUS_MILLIS, Argon2Cost.MAX_MEMORY_KB - 1, 64);
+
+        assertEquals(Argon2Cost.MAX_PARALLELISM, cost.parallelism);
+        assertEquals(0, cost.memoryKB % (4 * cost.parallelism));
+        assertTrue(cost.memoryKB <= Argon2Cost.MAX_MEMORY_KB - 1);
+    }
+
+    @Test
+    public void calibratedCostOnALargeHeapIsAcceptedOnASmallOne() {
+        Argon2Cost cost = Argon2Cost.calibrate(GENEROUS_MILLIS, Argon2Cost.memoryCeilingKB(8192 * MB), 8);
+
+        assertNull(cost.validate(64 * MB));
+    }
+
+    @Test
+    public void validateAcceptsTheSmallestAndPortableCosts() {
+        assertNull(new Argon2Cost(8, 1, 1).validate(64 * MB));
+        assertNull(new Argon2Cost(8 * 255, 1024, 255).validate(64 * MB));
+        assertNull(new Argon2Cost(Argon2Cost.MAX_MEMORY_KB, 1, 1).validate(64 * MB));
+    }
+
+    @Test
+    public void validateRejectsParametersOutOfRange() {
+        assertNotNull(new Argon2Cost(1024, 1, 0).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(1024 * 256, 1, 256).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(1024, 0, 1).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(1024, 1025, 1).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(8 * 4 - 1, 1, 4).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(4 * 1024 * 1024 + 1, 1, 1).validate(8192 * MB));
+        assertNotNull(new Argon2Cost(-1, 1, 1).validate(8192 * MB));
+    }
+
+    @Test
+    public void validateAcceptsMoreThanThePortableMaximumOnlyWithinHalfTheHeap() {
+        Argon2Cost legacy = new Argon2Cost(256 * 1024, 2, 4);
+
+        assertNull(legacy.validate(512 * MB));
+        assertNotNull(legacy.validate(511 * MB));
+    }
+}
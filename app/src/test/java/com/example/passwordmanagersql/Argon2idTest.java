@@ -0,0 +1,103 @@
+package com.example.passwordmanagersql;
+
+import org.bouncycastle.crypto.generators.Argon2BytesGenerator;
+import org.bouncycastle.crypto.params.Argon2Parameters;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class Argon2idTest {
+    private static final byte[] PASSWORD = "correct horse battery staple".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SALT = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void minimumMemoryMatchesForEveryLaneCount() {
+        for (int parallelism = 1; parallelism <= 16; parallelism++) {
+            assertMatches(8 * parallelism, 1, parallelism, 32);
+        }
+    }
+
+    @Test
+    public void memoryBelowTheMinimumIsRoundedUpToEightBlocksPerLane() {
+        // BouncyCastle rejects these costs instead of rounding them, so there is nothing to compare against
+        assertEquals(8, Argon2id.memoryBlocks(1, 1));
+        assertEquals(32, Argon2id.memoryBlocks(8, 4));
+        assertEquals(128, Argon2id.memoryBlocks(127, 16));
+        assertEquals(32, Argon2id.derive(PASSWORD, SALT, 1, 1, 1, 32).length);
+    }
+
+    @Test
+    public void memoryIsRoundedDownToWholeSegments() {
+        assertEquals(8, Argon2id.memoryBlocks(11, 1));
+        assertEquals(36, Argon2id.memoryBlocks(47, 3));
+        assertEquals(1008, Argon2id.memoryBlocks(1021, 7));
+    }
+
+    @Test
+    public void memoryNotAMultipleOfTheSegmentsMatches() {
+        for (int parallelism = 1; parallelism <= 16; parallelism++) {
+            assertMatches(8 * parallelism + 4 * parallelism - 1, 1, parallelism, 32);
+        }
+        assertMatches(1000, 2, 3, 32);
+        assertMatches(1021, 3, 7, 32);
+    }
+
+    @Test
+    public void onePassMatchesForEveryLaneCount() {
+        for (int parallelism = 1; parallelism <= 16; parallelism++) {
+            assertMatches(64 * parallelism, 1, parallelism, 32);
+        }
+    }
+
+    @Test
+    public void severalPassesMatch() {
+        assertMatches(256, 2, 1, 32);
+        assertMatches(512, 3, 4, 32);
+        assertMatches(1024, 4, 16, 32);
+    }
+
+    @Test
+    public void outputLengthsAroundOneBlake2bHashMatch() {
+        for (int outLength : new int[]{4, 16, 32, 63, 64, 65, 96, 128, 129, 1024}) {
+            assertMatches(64, 1, 1, outLength);
+            assertMatches(256, 2, 4, outLength);
+        }
+    }
+
+    @Test
+    public void emptyPasswordAndSaltMatch() {
+        assertArrayEquals(bouncyCastle(new byte[0], new byte[0], 64, 1, 2, 32),
+                Argon2id.derive(new byte[0], new byte[0], 64, 1, 2, 32));
+    }
+
+    @Test
+    public void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> Argon2id.derive(PASSWORD, SALT, 64, 1, 0, 32));
+        assertThrows(IllegalArgumentException.class, () -> Argon2id.derive(PASSWORD, SALT, 64, 0, 1, 32));
+        assertThrows(IllegalArgumentException.class, () -> Argon2id.derive(PASSWORD, SALT, 64, 1, 1, 3));
+    }
+
+    private static void assertMatches(int memoryKB, int iterations, int parallelism, int outLength) {
+        assertArrayEquals("m=" + memoryKB + " t=" + iterations + " p=" + parallelism + " out=" + outLength,
+                bouncyCastle(PASSWORD, SALT, memoryKB, iterations, parallelism, outLength),
+                Argon2id.derive(PASSWORD, SALT, memoryKB, iterations, parallelism, outLength));
+    }
+
+    private static byte[] bouncyCastle(byte[] password, byte[] salt, int memoryKB, int iterations, int parallelism, int outLength) {
+        Argon2BytesGenerator generator = new Argon2BytesGenerator();
+        generator.init(new Argon2Parameters.Builder(Argon2Parameters.ARGON2_id)
+                .withVersion(Argon2Parameters.ARGON2_VERSION_13)
+                .withSalt(salt)
+                .withParallelism(parallelism)
+                .withMemoryAsKB(memoryKB)
+                .withIterations(iterations)
+                .build());
+        byte[] out = new byte[outLength];
+        generator.generateBytes(password, out);
+        return out;
+    }
+}
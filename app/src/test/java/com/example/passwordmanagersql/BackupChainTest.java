@@ -0,0 +1,43 @@
+package com.example.passwordmanagersql;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BackupChainTest {
+    private static final Argon2Cost CHEAP = new Argon2Cost(64, 1, 1);
+
+    @Test
+    public void passphraseCheckMatchesOnlyTheSamePassphrase() {
+        String check = BackupChain.passphraseCheck("correct horse", CHEAP);
+
+        assertTrue(BackupChain.matches(check, "correct horse"));
+        assertFalse(BackupChain.matches(check, "correct horse "));
+        assertFalse(BackupChain.matches(check, ""));
+    }
+
+    @Test
+    public void passphraseChecksUseTheirOwnSalt() {
+        assertNotEquals(BackupChain.passphraseCheck("same", CHEAP), BackupChain.passphraseCheck("same", CHEAP));
+    }
+
+    @Test
+    public void malformedChecksMatchNothing() {
+        String check = BackupChain.passphraseCheck("secret", CHEAP);
+
+        assertFalse(BackupChain.matches("", "secret"));
+        assertFalse(BackupChain.matches(check.substring(0, check.lastIndexOf(':')), "secret"));
+        assertFalse(BackupChain.matches("x" + check, "secret"));
+        assertFalse(BackupChain.matches(check.replaceFirst("^64:", "0:"), "secret"));
+    }
+
+    @Test
+    public void aChainWithoutACheckIsNotExtended() {
+        BackupChain chain = new BackupChain(new byte[BackupChain.ID_LENGTH], 0, 0, 5);
+
+        assertFalse(chain.canExtend("secret"));
+        assertFalse(chain.next(6).canExtend("secret"));
+    }
+}
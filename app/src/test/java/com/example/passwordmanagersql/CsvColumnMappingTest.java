@@ -0,0 +1,141 @@
+package com.example.passwordmanagersql;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class CsvColumnMappingTest {
+    @Test
+    public void chromeExport() throws IOException {
+        char[][][] csv = parse("name,url,username,password,note\n"
+                + "Example,https://www.example.com/login,alice,s3cret,a note\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertEntry(mapping, csv[1], "www.example.com", "alice", "s3cret", 0);
+    }
+
+    @Test
+    public void firefoxExport() throws IOException {
+        char[][][] csv = parse("\"url\",\"username\",\"password\",\"httpRealm\",\"formActionOrigin\",\"guid\",\"timeCreated\",\"timeLastUsed\",\"timePasswordChanged\"\n"
+                + "\"https://accounts.example.org\",\"bob\",\"pa,ss\",,\"https://accounts.example.org\",\"{guid}\",\"1600000000000\",\"1700000000000\",\"1650000000000\"\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertEntry(mapping, csv[1], "accounts.example.org", "bob", "pa,ss", 1_650_000_000_000L);
+    }
+
+    @Test
+    public void bitwardenExportSkipsNotesAndCards() throws IOException {
+        char[][][] csv = parse("folder,favorite,type,name,notes,fields,reprompt,login_uri,login_username,login_password,login_totp\n"
+                + "Work,1,login,Mail,,,0,https://mail.example.net/,carol,hunter2,\n"
+                + ",,note,Wifi,the code is 1234,,0,,,,\n"
+                + ",,card,Visa,,,0,,,,\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertTrue(mapping.isLogin(csv[1]));
+        assertFalse(mapping.isLogin(csv[2]));
+        assertFalse(mapping.isLogin(csv[3]));
+        assertEntry(mapping, csv[1], "mail.example.net", "carol", "hunter2", 0);
+    }
+
+    @Test
+    public void keePass2Export() throws IOException {
+        char[][][] csv = parse("\"Account\",\"Login Name\",\"Password\",\"Web Site\",\"Comments\"\n"
+                + "\"Bank\",\"dave\",\"p\"\"q\",\"https://bank.example.com\",\"\"\n"
+                + "\"Router\",\"admin\",\"admin\",\"\",\"\"\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertEntry(mapping, csv[1], "bank.example.com", "dave", "p\"q", 0);
+        assertEquals("Router", mapping.website(csv[2]));
+    }
+
+    @Test
+    public void keePassXcExport() throws IOException {
+        char[][][] csv = parse("\"Group\",\"Title\",\"Username\",\"Password\",\"URL\",\"Notes\",\"TOTP\",\"Icon\",\"Last Modified\",\"Created\"\n"
+                + "\"Root\",\"Forum\",\" erin \",\"multi\nline\",\"forum.example.com\",\"\",\"\",\"0\",\"2024-01-02T03:04:05Z\",\"2023-01-01T00:00:00Z\"\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertEntry(mapping, csv[1], "forum.example.com", "erin", "multi\nline", 1_704_164_645_000L);
+    }
+
+    @Test
+    public void headerNamesAreMatchedIgnoringCaseAndSpaces() throws IOException {
+        char[][][] csv = parse(" URL , USERNAME ,Password\nhttps://x.example,frank,pw\n");
+
+        assertEntry(CsvColumnMapping.fromHeader(csv[0]), csv[1], "x.example", "frank", "pw", 0);
+    }
+
+    @Test
+    public void unparsableModificationTimesCountAsUnknown() throws IOException {
+        char[][][] firefox = parse("url,username,password,timePasswordChanged\nhttps://a.example,u,p,yesterday\n");
+        char[][][] keePassXc = parse("Title,Password,Last Modified\nA,p,2024-13-45\n");
+
+        assertEquals(0, CsvColumnMapping.fromHeader(firefox[0]).modifiedAt(firefox[1]));
+        assertEquals(0, CsvColumnMapping.fromHeader(keePassXc[0]).modifiedAt(keePassXc[1]));
+    }
+
+    @Test
+    public void shortRecordsReadMissingColumnsAsEmpty() throws IOException {
+        char[][][] csv = parse("name,url,username,password\nOnly a name\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertEquals("Only a name", mapping.website(csv[1]));
+        assertEquals("", mapping.username(csv[1]));
+        assertEquals(0, mapping.password(csv[1]).length);
+    }
+
+    @Test
+    public void unknownHeadersAreRejected() throws IOException {
+        assertThrows(IOException.class, () -> CsvColumnMapping.fromHeader(null));
+        assertThrows(IOException.class, () -> CsvColumnMapping.fromHeader(parse("url,username,secret\n")[0]));
+        assertThrows(IOException.class, () -> CsvColumnMapping.fromHeader(parse("username,password,notes\n")[0]));
+    }
+
+    @Test
+    public void recordsWithoutAPasswordOrWebsiteAreRejectedAndWiped() throws IOException {
+        char[][][] csv = parse("name,url,username,password\nSite,,alice,\n,,bob,secret\n");
+        CsvColumnMapping mapping = CsvColumnMapping.fromHeader(csv[0]);
+
+        assertThrows(IllegalArgumentException.class, () -> mapping.toEntry(csv[1]));
+        assertThrows(IllegalArgumentException.class, () -> mapping.toEntry(csv[2]));
+        assertArrayEquals(new char[6], csv[2][3]);
+        assertArrayEquals(new char[3], csv[2][2]);
+    }
+
+    @Test
+    public void hostOfKeepsOnlyTheHostOfAbsoluteUrls() {
+        assertEquals("Example.com", CsvColumnMapping.hostOf(" https://user@Example.com:8443/path?q=1#top "));
+        assertEquals("com.example.app", CsvColumnMapping.hostOf("android://hash@com.example.app/"));
+        assertEquals("example.com", CsvColumnMapping.hostOf("example.com"));
+        assertEquals("example.com/login", CsvColumnMapping.hostOf("example.com/login"));
+        assertEquals("http://bad host/", CsvColumnMapping.hostOf("http://bad host/"));
+        assertEquals("", CsvColumnMapping.hostOf("   "));
+    }
+
+    private static void assertEntry(CsvColumnMapping mapping, char[][] record, String website, String username,
+                                    String password, long modifiedAt) {
+        assertEquals(website, mapping.website(record));
+        assertEquals(username, mapping.username(record));
+        assertArrayEquals(password.toCharArray(), mapping.password(record));
+        assertEquals(modifiedAt, mapping.modifiedAt(record));
+    }
+
+    private static char[][][] parse(String csv) throws IOException {
+        List<char[][]> records = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new StringReader(csv))) {
+            char[][] record;
+            while ((record = reader.readRecord()) != null) {
+                records.add(record);
+            }
+        }
+        return records.toArray(new char[0][][]);
+    }
+}
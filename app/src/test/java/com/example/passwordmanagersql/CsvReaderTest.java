@@ -0,0 +1,169 @@
+package com.example.passwordmanagersql;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class CsvReaderTest {
+    @Test
+    public void splitsPlainFields() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), records("a,b,c"));
+    }
+
+    @Test
+    public void keepsEmptyFields() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("", "b", "", "")), records(",b,,\n"));
+    }
+
+    @Test
+    public void quotedFieldsMayHoldCommas() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a,b", "c")), records("\"a,b\",c"));
+    }
+
+    @Test
+    public void doubledQuotesStandForOne() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("say \"hi\"", "")), records("\"say \"\"hi\"\"\",\"\""));
+    }
+
+    @Test
+    public void quoteInsideAnUnquotedFieldIsKept() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a\"b", "c")), records("a\"b,c"));
+    }
+
+    @Test
+    public void quotedFieldsMaySpanLines() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("\"one\ntwo\r\nthree\",x\nnext,y\n"));
+
+        assertEquals(Arrays.asList("one\ntwo\r\nthree", "x"), strings(reader.readRecord()));
+        assertEquals(4, reader.getLine());
+        assertEquals(Arrays.asList("next", "y"), strings(reader.readRecord()));
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void recordsEndAtLfCrOrCrLf() throws IOException {
+        List<List<String>> expected = Arrays.asList(Arrays.asList("a", "1"), Arrays.asList("b", "2"), Arrays.asList("c", "3"));
+
+        assertEquals(expected, records("a,1\nb,2\nc,3\n"));
+        assertEquals(expected, records("a,1\rb,2\rc,3\r"));
+        assertEquals(expected, records("a,1\r\nb,2\r\nc,3\r\n"));
+        assertEquals(expected, records("a,1\r\nb,2\nc,3"));
+    }
+
+    @Test
+    public void blankLinesAreSkipped() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")), records("\n\r\na\n\n\r\nb\n\n"));
+    }
+
+    @Test
+    public void leadingByteOrderMarkIsSkipped() throws IOException {
+        assertEquals(Arrays.asList(Arrays.asList("name", "url")), records("﻿name,url"));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b﻿")), records("a,b﻿"));
+    }
+
+    @Test
+    public void parsesTheSameWhenTheInputArrivesOneCharacterAtATime() throws IOException {
+        String csv = "﻿\"a \"\"quoted\"\", value\",b\r\n\"multi\r\nline\",c\r\n";
+        CsvReader reader = new CsvReader(new TrickleReader(csv));
+
+        assertEquals(Arrays.asList("a \"quoted\", value", "b"), strings(reader.readRecord()));
+        assertEquals(Arrays.asList("multi\r\nline", "c"), strings(reader.readRecord()));
+        assertNull(reader.readRecord());
+    }
+
+    @Test
+    public void unterminatedQuoteIsRejected() {
+        IOException e = assertThrows(IOException.class, () -> records("a,b\n\"open,c\nd"));
+
+        assertTrue(e.getMessage(), e.getMessage().contains("line 2"));
+    }
+
+    @Test
+    public void textAfterAClosingQuoteIsRejected() {
+        IOException e = assertThrows(IOException.class, () -> records("\"a\"b,c"));
+
+        assertTrue(e.getMessage(), e.getMessage().contains("closing quote"));
+    }
+
+    @Test
+    public void recordsUpToTheCapAreRead() throws IOException {
+        char[] field = new char[CsvReader.MAX_RECORD_LENGTH];
+        Arrays.fill(field, 'x');
+        CsvReader reader = new CsvReader(new StringReader(new String(field) + "\nnext"));
+
+        assertEquals(CsvReader.MAX_RECORD_LENGTH, reader.readRecord()[0].length);
+        assertEquals(Arrays.asList("next"), strings(reader.readRecord()));
+    }
+
+    @Test
+    public void recordsOverTheCapAreRejected() {
+        char[] field = new char[CsvReader.MAX_RECORD_LENGTH + 1];
+        Arrays.fill(field, 'x');
+
+        IOException e = assertThrows(IOException.class, () -> records(new String(field)));
+        assertTrue(e.getMessage(), e.getMessage().contains("too long"));
+    }
+
+    @Test
+    public void wipeClearsEveryField() throws IOException {
+        char[][] record = new CsvReader(new StringReader("user,secret")).readRecord();
+
+        CsvReader.wipe(record);
+        assertEquals(Arrays.asList("\0\0\0\0", "\0\0\0\0\0\0"), strings(record));
+        CsvReader.wipe(null);
+    }
+
+    private static List<List<String>> records(String csv) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(new StringReader(csv))) {
+            char[][] record;
+            while ((record = reader.readRecord()) != null) {
+                records.add(strings(record));
+            }
+        }
+        return records;
+    }
+
+    private static List<String> strings(char[][] record) {
+        List<String> fields = new ArrayList<>(record.length);
+        for (char[] field : record) {
+            fields.add(new String(field));
+        }
+        return fields;
+    }
+
+    /**
+     * Hands out one character per read, so every field and line break crosses a buffer refill.
+     */
+    private static final class TrickleReader extends Reader {
+        private final String text;
+        private int position;
+
+        TrickleReader(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == text.length()) {
+                return -1;
+            }
+            buffer[offset] = text.charAt(position++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
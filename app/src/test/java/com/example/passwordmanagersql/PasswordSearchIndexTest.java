@@ -0,0 +1,152 @@
+package com.example.passwordmanagersql;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordSearchIndexTest {
+    private static final long NOW = 1_700_000_000_000L;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void prefixBeatsWordStartBeatsSubstring() {
+        PasswordSearchIndex index = indexOf(
+                summary(1, "legit.io", "a"),
+                summary(2, "my-git.org", "b"),
+                summary(3, "github.com", "c"));
+
+        assertEquals(Arrays.asList("github.com", "my-git.org", "legit.io"), websites(index.search("git", 10, NOW, () -> false)));
+    }
+
+    @Test
+    public void typoStillFindsTheEntryButRanksBelowExactMatches() {
+        PasswordSearchIndex index = indexOf(
+                summary(1, "github.com", "a"),
+                summary(2, "example.org", "b"),
+                summary(3, "gihtub-mirror.net", "c"));
+
+        assertEquals(Arrays.asList("gihtub-mirror.net", "github.com"), websites(index.search("gihtub", 10, NOW, () -> false)));
+    }
+
+    @Test
+    public void unrelatedQueryFindsNothing() {
+        PasswordSearchIndex index = indexOf(summary(1, "github.com", "alice"));
+
+        assertTrue(index.search("zzz", 10, NOW, () -> false).isEmpty());
+        assertTrue(index.search("  ", 10, NOW, () -> false).isEmpty());
+    }
+
+    @Test
+    public void usernameMatchesRankBelowWebsiteMatches() {
+        PasswordSearchIndex index = indexOf(
+                summary(1, "mail.example", "bank-login"),
+                summary(2, "bank.example", "alice"));
+
+        assertEquals(Arrays.asList("bank.example", "mail.example"), websites(index.search("bank", 10, NOW, () -> false)));
+    }
+
+    @Test
+    public void usageBreaksTiesBetweenEqualMatches() {
+        PasswordSummary unused = summary(1, "bank-a.com", "alice");
+        PasswordSummary used = summary(2, "bank-b.com", "alice");
+        PasswordSearchIndex index = indexOf(unused, used);
+        assertEquals(Arrays.asList("bank-a.com", "bank-b.com"), websites(index.search("bank", 10, NOW, () -> false)));
+
+        PasswordSummary usedOften = summary(2, "bank-b.com", "alice");
+        usedOften.useCount = 20;
+        usedOften.lastUsedAt = NOW - DAY_MS;
+        index.update(Arrays.asList(unused, usedOften));
+        assertEquals(Arrays.asList("bank-b.com", "bank-a.com"), websites(index.search("bank", 10, NOW, () -> false)));
+    }
+
+    @Test
+    public void usageDoesNotLiftATypoAboveAnExactMatch() {
+        PasswordSummary exact = summary(1, "github.com", "alice");
+        PasswordSummary typo = summary(2, "gitbuh.com", "alice");
+        typo.useCount = 1000;
+        typo.lastUsedAt = NOW;
+        PasswordSearchIndex index = indexOf(exact, typo);
+
+        assertEquals("github.com", index.search("github", 10, NOW, () -> false).get(0).getWebsite());
+    }
+
+    @Test
+    public void frecencyGrowsWithUseAndHalvesEveryTwoWeeks() {
+        PasswordSummary entry = summary(1, "site", "user");
+        assertEquals(0, PasswordSearchIndex.frecency(entry, NOW), 0);
+
+        entry.useCount = 3;
+        entry.lastUsedAt = NOW;
+        double fresh = PasswordSearchIndex.frecency(entry, NOW);
+        entry.useCount = 30;
+        double often = PasswordSearchIndex.frecency(entry, NOW);
+        entry.lastUsedAt = NOW - 14 * DAY_MS;
+        double stale = PasswordSearchIndex.frecency(entry, NOW);
+
+        assertTrue(fresh > 0 && fresh < often && often < 1);
+        double raw = Math.log1p(30);
+        assertEquals(raw / 2 / (1 + raw / 2), stale, 1e-9);
+    }
+
+    @Test
+    public void limitKeepsTheBestResults() {
+        List<PasswordSummary> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entries.add(summary(i, "shop" + i + ".example", "user"));
+        }
+        entries.add(summary(100, "shop", "user"));
+        PasswordSearchIndex index = new PasswordSearchIndex();
+        index.update(entries);
+
+        List<PasswordSummary> results = index.search("shop", 5, NOW, () -> false);
+        assertEquals(5, results.size());
+        assertEquals("shop", results.get(0).getWebsite());
+    }
+
+    @Test
+    public void cancelledSearchReturnsNull() {
+        PasswordSearchIndex index = indexOf(summary(1, "github.com", "alice"));
+
+        assertNull(index.search("git", 10, NOW, () -> true));
+    }
+
+    @Test
+    public void updateDropsRemovedEntriesAndReindexesRenamedOnes() {
+        PasswordSearchIndex index = indexOf(
+                summary(1, "github.com", "alice"),
+                summary(2, "gitlab.com", "alice"));
+
+        index.update(Arrays.asList(summary(1, "codeberg.org", "alice")));
+
+        assertTrue(index.search("git", 10, NOW, () -> false).isEmpty());
+        assertEquals(Arrays.asList("codeberg.org"), websites(index.search("codeberg", 10, NOW, () -> false)));
+    }
+
+    private static PasswordSearchIndex indexOf(PasswordSummary... entries) {
+        PasswordSearchIndex index = new PasswordSearchIndex();
+        index.update(Arrays.asList(entries));
+        return index;
+    }
+
+    private static PasswordSummary summary(int id, String website, String username) {
+        PasswordSummary summary = new PasswordSummary();
+        summary.id = id;
+        summary.website = website;
+        summary.username = username;
+        return summary;
+    }
+
+    private static List<String> websites(List<PasswordSummary> results) {
+        List<String> websites = new ArrayList<>(results.size());
+        for (PasswordSummary result : results) {
+            websites.add(result.getWebsite());
+        }
+        return websites;
+    }
+}